@@ -0,0 +1,115 @@
+package org.hyperledger.fabric.samples.assettransfer;
+
+import java.util.Objects;
+
+import org.hyperledger.fabric.contract.annotation.DataType;
+import org.hyperledger.fabric.contract.annotation.Property;
+
+@DataType()
+public class AggregateRule {
+    // un limite su un aggregato (sum, avg, min, max) dei valori di una variabile in una finestra di tempo
+
+    public static final String SUM = "sum";
+    public static final String AVG = "avg";
+    public static final String MIN = "min";
+    public static final String MAX = "max";
+
+    @Property()
+    private final String ID;
+
+    @Property
+    private final String dataMonitored;
+
+    @Property()
+    private final String function;
+
+    @Property()
+    private final long window; // secondi, le finestre partono dalla mezzanotte UTC
+
+    @Property()
+    private final Integer tolerance;
+
+    @Property()
+    private final String operator;
+
+    @Property()
+    private final Float threshold;
+
+    public AggregateRule(String ID, String dataMonitored, String function, long window, Integer tolerance, String operator, Float threshold) {
+        if (!SUM.equals(function) && !AVG.equals(function) && !MIN.equals(function) && !MAX.equals(function)) {
+            throw new IllegalArgumentException("Unknown aggregate function " + function + ".");
+        }
+        if (window <= 0 || window > 86400) {
+            throw new IllegalArgumentException("The window of an aggregate rule must be between 1 and 86400 seconds.");
+        }
+        this.ID = ID;
+        this.dataMonitored = dataMonitored;
+        this.function = function;
+        this.window = window;
+        this.tolerance = tolerance;
+        this.operator = operator;
+        this.threshold = threshold;
+    }
+
+    public String getID() {
+        return ID;
+    }
+
+    public String getDataMonitored() {
+        return dataMonitored;
+    }
+
+    public String getFunction() {
+        return function;
+    }
+
+    public long getWindow() {
+        return window;
+    }
+
+    public Integer getTolerance() {
+        return tolerance;
+    }
+
+    public String getOperator() {
+        return operator;
+    }
+
+    public Float getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("AggregateRule{");
+        sb.append("ID=").append(ID);
+        sb.append(", dataMonitored=").append(dataMonitored);
+        sb.append(", function=").append(function);
+        sb.append(", window=").append(window);
+        sb.append(", tolerance=").append(tolerance);
+        sb.append(", operator=").append(operator);
+        sb.append(", threshold=").append(threshold);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getDataMonitored(), getFunction(), getWindow(), getTolerance(), getOperator(), getThreshold());
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if ((obj == null) || (getClass() != obj.getClass())) {
+            return false;
+        }
+        AggregateRule other = (AggregateRule) obj;
+        return Objects.deepEquals(new Object[] {getDataMonitored(), getFunction(), getWindow(), getTolerance(), getOperator(), getThreshold()},
+        new Object[] {other.getDataMonitored(), other.getFunction(), other.getWindow(), other.getTolerance(), other.getOperator(), other.getThreshold()});
+    }
+
+}
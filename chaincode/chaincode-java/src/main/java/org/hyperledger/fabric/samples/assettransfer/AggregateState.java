@@ -0,0 +1,109 @@
+package org.hyperledger.fabric.samples.assettransfer;
+
+import org.hyperledger.fabric.contract.annotation.DataType;
+import org.hyperledger.fabric.contract.annotation.Property;
+
+import com.owlike.genson.annotation.JsonProperty;
+
+@DataType()
+public class AggregateState {
+    // lo stato di una regola aggregata per un utente, chiave aggregate~groupID~userID~ruleID
+    // tiene solo contatore, somma, minimo e massimo della finestra corrente: ogni misura lo aggiorna in tempo costante
+
+    @Property()
+    private final String groupID;
+
+    @Property()
+    private final String userID;
+
+    @Property()
+    private final String ruleID;
+
+    @Property()
+    private final long windowStart; // secondi dall'epoch
+
+    @Property()
+    private final long count;
+
+    @Property()
+    private final double sum;
+
+    @Property()
+    private final float min;
+
+    @Property()
+    private final float max;
+
+    public AggregateState(@JsonProperty("groupID") final String groupID, @JsonProperty("userID") final String userID, @JsonProperty("ruleID") final String ruleID,
+    @JsonProperty("windowStart") final long windowStart, @JsonProperty("count") final long count, @JsonProperty("sum") final double sum,
+    @JsonProperty("min") final float min, @JsonProperty("max") final float max) {
+        this.groupID = groupID;
+        this.userID = userID;
+        this.ruleID = ruleID;
+        this.windowStart = windowStart;
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+    }
+
+    public AggregateState(final String groupID, final String userID, final String ruleID, final long windowStart) {
+        this(groupID, userID, ruleID, windowStart, 0, 0, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY);
+    }
+
+    public String getGroupID() {
+        return groupID;
+    }
+
+    public String getUserID() {
+        return userID;
+    }
+
+    public String getRuleID() {
+        return ruleID;
+    }
+
+    public long getWindowStart() {
+        return windowStart;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public float getMin() {
+        return min;
+    }
+
+    public float getMax() {
+        return max;
+    }
+
+    // lo stato con un valore in più, se la finestra è cambiata si riparte da zero
+    public AggregateState add(final long window, final float value) {
+        if (window != windowStart) {
+            return new AggregateState(groupID, userID, ruleID, window, 1, value, value, value);
+        }
+        return new AggregateState(groupID, userID, ruleID, window, count + 1, sum + value, Math.min(min, value), Math.max(max, value));
+    }
+
+    public double value(final String function) {
+        switch (function) {
+            case AggregateRule.SUM:
+                return sum;
+            case AggregateRule.AVG:
+                return count == 0 ? 0 : sum / count;
+            case AggregateRule.MIN:
+                return min;
+            case AggregateRule.MAX:
+                return max;
+            default:
+                throw new IllegalArgumentException("Unknown aggregate function " + function + ".");
+        }
+    }
+
+}
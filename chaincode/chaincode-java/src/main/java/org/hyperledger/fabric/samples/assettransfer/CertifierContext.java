@@ -0,0 +1,122 @@
+package org.hyperledger.fabric.samples.assettransfer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.hyperledger.fabric.contract.Context;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+
+import com.google.gson.Gson;
+
+public final class CertifierContext extends Context {
+    // il contesto di una transazione: utenti, gruppi, policy, dispositivi e warning letti una volta sola, per chiave del ledger
+    // le entità modificate si segnano con put e si scrivono una volta sola in flush, chiamato da afterTransaction
+
+    private static final Gson gson = new Gson();
+
+    // policy e dispositivi non cambiano dopo la creazione: gli oggetti letti restano in cache nel processo del chaincode
+    // tra una transazione e l'altra, insieme ai byte da cui vengono. La lettura dal peer si fa sempre, così il read set
+    // non cambia; se i byte sono gli stessi si riusa l'oggetto senza rifare il parse. Gli oggetti in cache non si modificano
+    private static final int IMMUTABLE_CACHE_SIZE = 256;
+
+    private static final Map<String, Immutable> immutables = new LinkedHashMap<String, Immutable>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Immutable> eldest) {
+            return size() > IMMUTABLE_CACHE_SIZE;
+        }
+    };
+
+    private final Map<String, Object> entities = new HashMap<String, Object>();
+
+    // in ordine di prima modifica, così le scritture sono le stesse su tutti i peer
+    private final Set<String> changed = new LinkedHashSet<String>();
+
+    public CertifierContext(final ChaincodeStub stub) {
+        super(stub);
+    }
+
+    // null se la chiave non è sul ledger
+    public <T> T get(final String key, final Class<T> type) {
+        Object entity = entities.get(key);
+        if (entity == null) {
+            String state = getStub().getStringState(key);
+            if (state == null || state.isEmpty()) {
+                return null;
+            }
+            entity = gson.fromJson(state, type);
+            entities.put(key, entity);
+        }
+        return type.cast(entity);
+    }
+
+    // come get, per le entità che non cambiano dopo la creazione; null se la chiave non è sul ledger
+    public <T> T getImmutable(final String key, final Class<T> type) {
+        Object entity = entities.get(key);
+        if (entity == null) {
+            byte[] state = getStub().getState(key);
+            if (state == null || state.length == 0) {
+                return null;
+            }
+            Immutable cached;
+            synchronized (immutables) {
+                cached = immutables.get(key);
+            }
+            if (cached != null && type.isInstance(cached.entity) && Arrays.equals(cached.state, state)) {
+                entity = cached.entity;
+            } else {
+                entity = gson.fromJson(new String(state, StandardCharsets.UTF_8), type);
+                synchronized (immutables) {
+                    immutables.put(key, new Immutable(state, entity));
+                }
+            }
+            entities.put(key, entity);
+        }
+        return type.cast(entity);
+    }
+
+    // l'entità già letta o scritta in questa transazione, null se non c'è
+    public <T> T cached(final String key, final Class<T> type) {
+        Object entity = entities.get(key);
+        return type.isInstance(entity) ? type.cast(entity) : null;
+    }
+
+    public boolean exists(final String key) {
+        if (entities.containsKey(key)) {
+            return true;
+        }
+        String state = getStub().getStringState(key);
+        return state != null && !state.isEmpty();
+    }
+
+    public void put(final String key, final Object entity) {
+        entities.put(key, entity);
+        changed.add(key);
+    }
+
+    public void flush() {
+        ChaincodeStub stub = getStub();
+        for (String key : changed) {
+            stub.putStringState(key, gson.toJson(entities.get(key)));
+        }
+        changed.clear();
+    }
+
+    private static final class Immutable {
+
+        private final byte[] state;
+
+        private final Object entity;
+
+        private Immutable(final byte[] state, final Object entity) {
+            this.state = state;
+            this.entity = entity;
+        }
+
+    }
+
+}
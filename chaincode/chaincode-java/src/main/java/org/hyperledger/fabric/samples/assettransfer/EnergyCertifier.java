@@ -1,8 +1,14 @@
 package org.hyperledger.fabric.samples.assettransfer;
 
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
+import java.time.format.DateTimeParseException;
 
 import org.hyperledger.fabric.contract.Context;
 import org.hyperledger.fabric.contract.ContractInterface;
@@ -12,23 +18,33 @@ import org.hyperledger.fabric.contract.annotation.Default;
 import org.hyperledger.fabric.contract.annotation.Info;
 //import org.hyperledger.fabric.contract.annotation.License;
 import org.hyperledger.fabric.contract.annotation.Transaction;
+import org.hyperledger.fabric.protos.peer.QueryResponseMetadata;
 import org.hyperledger.fabric.shim.ChaincodeException;
 import org.hyperledger.fabric.shim.ChaincodeStub;
 //import org.hyperledger.fabric.shim.ledger.KeyValue;
 //import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
 import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIteratorWithMetadata;
+import org.hyperledger.fabric.shim.ledger.CompositeKey;
 import org.hyperledger.fabric.shim.ledger.KeyValue;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
 import java.util.UUID;
+import java.util.function.Function;
+import java.io.IOException;
+import java.io.StringWriter;
 
 import org.json.JSONObject;
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
 
 @Contract(
         name = "basic",
@@ -41,6 +57,73 @@ public final class EnergyCertifier implements ContractInterface {
 
     private final Gson gson = new Gson();
 
+	//Composite key object types: measure~groupID~userID~deviceID~time~measureID and measureID~measureID -> measure key
+	private static final String MEASURE = "measure";
+	private static final String MEASURE_ID = "measureID";
+	//measureBucket~groupID~hour~time~measureID -> measure key, hour is the epoch hour of the transaction
+	private static final String MEASURE_BUCKET = "measureBucket";
+	private static final long BUCKET_MILLIS = 3600000L;
+	//Longest window checked by one arbiter transaction, one range query per hour bucket
+	private static final long MAX_ARBITER_MILLIS = 7 * 24 * BUCKET_MILLIS;
+	//The times of day stored without a date wrap around here
+	private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+	//lastMeasure~groupID~userID~variable -> LastMeasure. It is per user, not per device: a time rule is respected by any device of the user,
+	//so two devices of one user sending the same variable still conflict on it, on its deadline and on the warnings of the user
+	private static final String LAST_MEASURE = "lastMeasure";
+	//Violation indexes, the violation itself stays under "violation"+ID
+	private static final String VIOLATION_BY_GROUP = "violationGroup"; //groupID~time~violationID
+	private static final String VIOLATION_BY_USER = "violationUser"; //groupID~userID~deviceID~time~violationID
+	private static final String VIOLATION_BY_MEASURE = "violationMeasure"; //measureID~time~violationID, only for the violations of a measure
+	private static final String INDEX_VALUE = "\u0000";
+
+	//proposal~groupID~digest -> Proposal, the digest is the SHA-256 of the policy content
+	private static final String PROPOSAL = "proposal";
+	//ballot~groupID~userID -> digest of the proposal voted by the user
+	private static final String BALLOT = "ballot";
+	//verdict~measureID -> Verdict of sendAndCheck, a retried submission returns it
+	private static final String VERDICT = "verdict";
+	//deadline~groupID~time~userID~variable, next sample deadline of the variables monitored by a time rule, in deadline order
+	private static final String DEADLINE = "deadline";
+	//aggregate~groupID~userID~ruleID -> AggregateState, the current window of an aggregate rule
+	private static final String AGGREGATE = "aggregate";
+	//userDevice~userID~deviceID and userPolicy~userID~policyID, kept out of the user record
+	private static final String USER_DEVICE = "userDevice";
+	private static final String USER_POLICY = "userPolicy";
+
+	//Indexes removed by purgeGroup, in order, all of them start with the groupID. The value names of the streams go after the measures that use them
+	private static final String[] PURGE_PHASES = {MEASURE, MeasureStreams.STREAM_NAMES, LAST_MEASURE, DEADLINE, UserWarnings.WARNING, AGGREGATE, PROPOSAL, BALLOT, VIOLATION_BY_GROUP};
+
+	private static final int MAX_PAGE_SIZE = 1000;
+
+	/**
+	 * Every transaction gets a context that keeps the users, groups, policies and devices it reads
+	 * @param stub the chaincode stub
+	 * @return the transaction context
+	 */
+	@Override
+	public Context createContext(final ChaincodeStub stub) {
+		return new CertifierContext(stub);
+	}
+
+	/**
+	 * Write once the entities changed by the transaction
+	 * @param ctx the transaction context
+	 * @param result the result of the transaction
+	 */
+	@Override
+	public void afterTransaction(final Context ctx, final Object result) {
+		unitOfWork(ctx).flush();
+	}
+
+	/**
+	 * The users, groups, policies and devices of the transaction, read and written through it
+	 * @param ctx the transaction context
+	 * @return the unit of work of the transaction
+	 */
+	private CertifierContext unitOfWork(final Context ctx) {
+		return (CertifierContext) ctx;
+	}
+
 
     /**
      * Create a new user
@@ -52,8 +135,6 @@ public final class EnergyCertifier implements ContractInterface {
      */
     @Transaction(intent = Transaction.TYPE.SUBMIT)
     public void createUser(final Context ctx, final String ID, final String name, final String surname, final String email) {
-        ChaincodeStub stub = ctx.getStub();
-
         if(userExists(ctx, ID)) {
             String errorMessage = String.format("User %s already exists", ID);
             System.out.println(errorMessage);
@@ -62,8 +143,7 @@ public final class EnergyCertifier implements ContractInterface {
 
         User user = new User(ID, name, surname, email);
 
-        String userState = gson.toJson(user);
-        stub.putStringState("user"+ID, userState);
+        unitOfWork(ctx).put("user" + ID, user);
     }
 
 
@@ -77,8 +157,6 @@ public final class EnergyCertifier implements ContractInterface {
 	 */
 	@Transaction(intent = Transaction.TYPE.SUBMIT)
 	public void createGroup(final Context ctx, final String ID, final String name, final String location, final String userID, final String proposalTimer, final String voteTimer) {
-		ChaincodeStub stub = ctx.getStub();
-
 		if(groupExists(ctx, ID)) {
 			String errorMessage = String.format("Group %s already exists", ID);
 			System.out.println(errorMessage);
@@ -100,10 +178,8 @@ public final class EnergyCertifier implements ContractInterface {
 
 		System.out.println("Group created " + group.getID());
 
-		String groupState = gson.toJson(group);
-		stub.putStringState("group" + ID, groupState);
-		String userState = gson.toJson(user);
-		stub.putStringState("user" + userID, userState); 
+		unitOfWork(ctx).put("group" + ID, group);
+		unitOfWork(ctx).put("user" + userID, user); 
 	}
 
 	
@@ -131,6 +207,9 @@ public final class EnergyCertifier implements ContractInterface {
 		else if(policyType.equals("TIMEVALUE")){
 			metricType = PolicyType.TIMEVALUE;
 		}
+		else if(policyType.equals("AGGREGATE")){
+			metricType = PolicyType.AGGREGATE;
+		}
 		else if (metricType == null) {
 			String errorMessage = String.format("Metric %s is not valid", policyType);
 			System.out.println(errorMessage);
@@ -146,13 +225,11 @@ public final class EnergyCertifier implements ContractInterface {
 		//genero l'ID a caso 
 		
 		System.out.println("Initialized, Creating policy " + ID);
-		Policy policy = user.createPolicy(ID, metricType, rulesList);
+		Policy policy = new Policy(ID, metricType, rulesList);
 		ChaincodeStub stub = ctx.getStub();
 		System.out.println(policy.toString());
-		String policyState = gson.toJson(policy);
-		stub.putStringState("policy"+ID, policyState);
-		String userState = gson.toJson(user);
-		stub.putStringState("user"+userID, userState);
+		unitOfWork(ctx).put("policy" + ID, policy);
+		stub.putStringState(stub.createCompositeKey(USER_POLICY, userID, ID).toString(), INDEX_VALUE);
 
 	}
 
@@ -164,10 +241,7 @@ public final class EnergyCertifier implements ContractInterface {
      */
     @Transaction(intent = Transaction.TYPE.EVALUATE)
     public boolean userExists(final Context ctx, final String ID) {
-        ChaincodeStub stub = ctx.getStub();
-        String userState = stub.getStringState("user"+ID);
-
-        return (userState != null && !userState.isEmpty());
+        return unitOfWork(ctx).exists("user" + ID);
     }
 
 	/**
@@ -178,10 +252,7 @@ public final class EnergyCertifier implements ContractInterface {
 	 */
 	@Transaction(intent = Transaction.TYPE.EVALUATE)
 	public boolean policyExists(final Context ctx, final String ID) {
-		ChaincodeStub stub = ctx.getStub();
-		String policyState = stub.getStringState("policy"+ID);
-
-		return (policyState != null && !policyState.isEmpty());
+		return unitOfWork(ctx).exists("policy" + ID);
 	}
 
     /**
@@ -192,10 +263,7 @@ public final class EnergyCertifier implements ContractInterface {
 	 */
 	@Transaction(intent = Transaction.TYPE.EVALUATE)
 	public boolean groupExists(final Context ctx, final String ID) {
-		ChaincodeStub stub = ctx.getStub();
-		String groupState = stub.getStringState("group"+ID);
-
-		return (groupState != null && !groupState.isEmpty());
+		return unitOfWork(ctx).exists("group" + ID);
 	}
 
 	/**
@@ -206,10 +274,7 @@ public final class EnergyCertifier implements ContractInterface {
 	 */
 	@Transaction(intent = Transaction.TYPE.EVALUATE)
 	public boolean deviceExists(final Context ctx, final String ID) {
-		ChaincodeStub stub = ctx.getStub();
-		String deviceState = stub.getStringState("device"+ID);
-
-		return (deviceState != null && !deviceState.isEmpty());
+		return unitOfWork(ctx).exists("device" + ID);
 	}
 
 	/**
@@ -220,8 +285,6 @@ public final class EnergyCertifier implements ContractInterface {
 	 */
 	@Transaction(intent = Transaction.TYPE.SUBMIT)
 	public void joinGroup(final Context ctx, final String groupID, final String userID) {
-		ChaincodeStub stub = ctx.getStub();
-
 		Group group = getGroup(ctx, groupID);
 		User user = getUser(ctx, userID);
 		String adminID = group.getAdmin();
@@ -250,8 +313,7 @@ public final class EnergyCertifier implements ContractInterface {
 
 		group.addJoiningRequest(userID);
 
-		String groupState = gson.toJson(group);
-		stub.putStringState("group" + groupID, groupState);
+		unitOfWork(ctx).put("group" + groupID, group);
 	}
 
 	/**
@@ -263,8 +325,6 @@ public final class EnergyCertifier implements ContractInterface {
 	 */
 	@Transaction(intent = Transaction.TYPE.SUBMIT)
 	public void acceptRequest(final Context ctx, final String groupID, final String userID, final String adminID) {
-		ChaincodeStub stub = ctx.getStub();
-
 		Group group = getGroup(ctx, groupID);
 		User user = getUser(ctx, userID);
 		User admin = getUser(ctx, adminID);
@@ -299,10 +359,8 @@ public final class EnergyCertifier implements ContractInterface {
 
 		admin.acceptRequest(group, user);
 		
-		String groupState = gson.toJson(group);
-		String userState = gson.toJson(user);
-		stub.putStringState("group" + groupID, groupState);
-		stub.putStringState("user" + userID, userState);
+		unitOfWork(ctx).put("group" + groupID, group);
+		unitOfWork(ctx).put("user" + userID, user);
 	}
 	
 
@@ -323,14 +381,12 @@ public final class EnergyCertifier implements ContractInterface {
 			throw new ChaincodeException(errorMessage);
 		}
 
-		User user = getUser(ctx, userID);
+		//Throws if the user does not exist
+		getUser(ctx, userID);
 		Device device = new Device(ID, unit, userID);
-		user.addDevice(ID);
 
-		String deviceState = gson.toJson(device);
-		String userState = gson.toJson(user);
-		stub.putStringState("device"+ID, deviceState);
-		stub.putStringState("user"+userID, userState);
+		unitOfWork(ctx).put("device" + ID, device);
+		stub.putStringState(stub.createCompositeKey(USER_DEVICE, userID, ID).toString(), INDEX_VALUE);
 
 		IDToken idToken = new IDToken(groupID, userID, ID);
 		String uuid = idToken.getId();
@@ -343,6 +399,40 @@ public final class EnergyCertifier implements ContractInterface {
 	}
 
 
+	/**
+	 * Keep the payload of the measures of a group in a private data collection, only a digest and the monitored values stay in public state
+	 * @param ctx the transaction context
+	 * @param groupID the ID of the group
+	 * @param adminID the ID of the admin
+	 * @param collection the private data collection, empty for the implicit collection of the caller organization
+	 */
+	@Transaction(intent = Transaction.TYPE.SUBMIT)
+	public void setPayloadCollection(final Context ctx, final String groupID, final String adminID, final String collection) {
+		Group group = getGroup(ctx, groupID);
+
+		//Check if user is the admin of the group
+		if(!Role.ADMIN.equals(group.getMembers().get(adminID))) {
+			String errorMessage = String.format("User %s is not the admin of the group", adminID);
+			System.out.println(errorMessage);
+			throw new ChaincodeException(errorMessage);
+		}
+
+		//The measures of a group are all in the same mode
+		if(!group.getState().equals(GroupState.NEW)) {
+			String errorMessage = String.format("The group is not in new state");
+			System.out.println(errorMessage);
+			throw new ChaincodeException(errorMessage);
+		}
+
+		if (collection.isEmpty()) {
+			group.setPayloadCollection("_implicit_org_" + ctx.getClientIdentity().getMSPID());
+		} else {
+			group.setPayloadCollection(collection);
+		}
+
+		unitOfWork(ctx).put("group" + groupID, group);
+	}
+
 	/**
 	 * Starts the policy proposal phase 
 	 * @param ctx the transaction context
@@ -351,8 +441,6 @@ public final class EnergyCertifier implements ContractInterface {
 	 */
 	@Transaction(intent = Transaction.TYPE.SUBMIT)
 	public void startPolicyProposalPhase(final Context ctx, final String groupID, final String adminID) {
-		ChaincodeStub stub = ctx.getStub();
-
 		Group group = getGroup(ctx, groupID);
 		User admin = getUser(ctx, adminID);
 
@@ -381,8 +469,7 @@ public final class EnergyCertifier implements ContractInterface {
 		group.setState(GroupState.POLICYPROPOSAL);
 		group.setTimer(time);
 
-		String groupState = gson.toJson(group);
-		stub.putStringState("group"+groupID, groupState);
+		unitOfWork(ctx).put("group" + groupID, group);
 	}
 
 	/**
@@ -428,12 +515,27 @@ public final class EnergyCertifier implements ContractInterface {
 			throw new ChaincodeException(errorMessage);
 		}
 
+		//Check if the policy was created by the user
+		if(!userHasPolicy(stub, userID, policyID)) {
+			String errorMessage = String.format("Policy %s was not created by user %s", policyID, userID);
+			System.out.println(errorMessage);
+			throw new ChaincodeException(errorMessage);
+		}
+
 		GroupState state = getGroupState(ctx, group);
 
 		if (state == GroupState.POLICYPROPOSAL) {
-			group.addProposal(user.getPolicy(policyID));
-			String groupState = gson.toJson(group);
-			stub.putStringState("group"+groupID, groupState);
+			//The key is the digest of the content, an equal policy is found with a single read
+			String digest = policy.contentDigest();
+			String proposalKey = stub.createCompositeKey(PROPOSAL, groupID, digest).toString();
+			String proposalState = stub.getStringState(proposalKey);
+			if (proposalState != null && !proposalState.isEmpty()) {
+				String errorMessage = String.format("Policy %s was already proposed", policyID);
+				System.out.println(errorMessage);
+				throw new ChaincodeException(errorMessage);
+			}
+			stub.putStringState(proposalKey, gson.toJson(new Proposal(groupID, digest, policyID)));
+			System.out.println("Policy " + policyID + " added to the vote");
 		} else {
 			String errorMessage = String.format("The group is not in policy proposal state");
 			System.out.println(errorMessage);
@@ -471,13 +573,6 @@ public final class EnergyCertifier implements ContractInterface {
 			throw new ChaincodeException(errorMessage);
 		}
 
-		//Check if there is a policy to vote
-		if(group.getProposed_policies().isEmpty()) {
-			String errorMessage = String.format("There are no policies to vote");
-			System.out.println(errorMessage);
-			throw new ChaincodeException(errorMessage);
-		}
-
 		//Check if the policy exists
 		if(policy == null) {
 			String errorMessage = String.format("Policy %s does not exist", policyID);
@@ -486,19 +581,22 @@ public final class EnergyCertifier implements ContractInterface {
 		}
 
 		//Check if the policy is in the policies to vote
-		if(!group.getProposed_policies().containsKey(policy)) {
+		String digest = policy.contentDigest();
+		String proposalState = stub.getStringState(stub.createCompositeKey(PROPOSAL, groupID, digest).toString());
+		if(proposalState == null || proposalState.isEmpty()) {
 			String errorMessage = String.format("Policy %s is not in the policies to vote", policyID);
 			System.out.println(errorMessage);
 			throw new ChaincodeException(errorMessage);
 		}
 
 		GroupState state = getGroupState(ctx, group);
-		Boolean hasVoted = user.getHasVoted();
+		//Each voter writes only its own ballot, concurrent votes in the group do not conflict
+		String ballotKey = stub.createCompositeKey(BALLOT, groupID, userID).toString();
+		String ballot = stub.getStringState(ballotKey);
+		Boolean hasVoted = ballot != null && !ballot.isEmpty();
 
 		if(!hasVoted && state == GroupState.VOTEOPEN){
-			user.vote(group, policy);
-			String groupState = gson.toJson(group);
-			stub.putStringState("group"+groupID, groupState);
+			stub.putStringState(ballotKey, digest);
 		} else if (hasVoted == true) {
 			String errorMessage = String.format("User %s has already voted", userID);
 			System.out.println(errorMessage);
@@ -535,14 +633,16 @@ public final class EnergyCertifier implements ContractInterface {
 			valuesListFloat.add(Float.parseFloat(value));
 		}
 		//Get parameter from UUID JSON string
-		IDToken UUIDToken = gson.fromJson(stub.getStringState("UUID"+measureUUID), IDToken.class);
+		MeasureStreams streams = new MeasureStreams(stub);
+		IDToken UUIDToken = streams.token(measureUUID);
 		System.out.println("UUIDToken: " + UUIDToken);
 
 		String userId = UUIDToken.getUserid();
 		String groupID = UUIDToken.getGroupid();
 		String deviceID = UUIDToken.getDeviceid();
 		
-		Group group = getGroup(ctx, groupID);
+		//Only the fields checked here are read from the group, its other members and its rules are skipped
+		GroupView group = getGroupView(ctx, groupID, userId, false);
 		User user = getUser(ctx, userId);
 
 		//Check if group exists
@@ -560,14 +660,14 @@ public final class EnergyCertifier implements ContractInterface {
 		}
 
 		//Check if user is in the group
-		if(!group.getMembers().containsKey(user.getID())) {
+		if(!group.isMember()) {
 			String errorMessage = String.format("User %s is not in the group", user.getID());
 			System.out.println(errorMessage);
 			throw new ChaincodeException(errorMessage);
 		}
 
 		//Check if the user has the device
-		if(!user.hasDevice(deviceID)) {
+		if(!userHasDevice(stub, user.getID(), deviceID)) {
 			String errorMessage = String.format("User %s has no device %s", user.getID(), deviceID);
 			System.out.println(errorMessage);
 			throw new ChaincodeException(errorMessage);
@@ -578,13 +678,8 @@ public final class EnergyCertifier implements ContractInterface {
 		if (state == GroupState.MONITORING) {
 			LocalTime time = LocalTime.now().withNano(0);
 			Measure measure = new Measure(user.getID(), measureID, time, valuesList, deviceID, groupID, valueNamesList);
-			String measureState = gson.toJson(measure);
-			stub.putStringState("measure"+measureID, measureState);
-			//for (String data : valueNamesList){
-			//	user.setLastMeasure(data, measure);
-			//}
-			String userState = gson.toJson(user);
-			stub.putStringState("user"+userId, userState);
+			//The last measures and the sample deadlines are moved only by checked measures, an unchecked one cannot reset a time rule
+			storeMeasure(ctx, group, measure, streams, measureUUID);
 		} else {
 			String errorMessage = String.format("The group is not in monitoring state");
 			System.out.println(errorMessage);
@@ -602,18 +697,9 @@ public final class EnergyCertifier implements ContractInterface {
 	 */
 	public Boolean hasViolation(final Context ctx, final String measureID) {
 		ChaincodeStub stub = ctx.getStub();
-		//Get all the violation that starts with "violation12AUTO"
-		
-		QueryResultsIterator<KeyValue> results = stub.getStateByRange("violation"+measureID, "violation"+measureID+"z");
-		List<Violation> violations = new ArrayList<Violation>();
-
-		for (KeyValue result : results) {
-			String violationState = result.getStringValue();
-			Violation violation = gson.fromJson(violationState, Violation.class);
-			violations.add(violation);
+		try (LedgerQuery results = new LedgerQuery(stub.getStateByPartialCompositeKey(VIOLATION_BY_MEASURE, measureID))) {
+			return results.iterator().hasNext();
 		}
-
-		return !violations.isEmpty();
 	}
 
 
@@ -625,38 +711,31 @@ public final class EnergyCertifier implements ContractInterface {
 	 */
 	public LocalTime lastViolationTime (final Context ctx, final String measureID) {
 		ChaincodeStub stub = ctx.getStub();
-		//Get all the violation that starts with "violation12AUTO"
-		
-		QueryResultsIterator<KeyValue> results = stub.getStateByRange("violation"+measureID, "violation"+measureID+"z");
-		List<Violation> violations = new ArrayList<Violation>();
-
-		for (KeyValue result : results) {
-			String violationState = result.getStringValue();
-			Violation violation = gson.fromJson(violationState, Violation.class);
-			violations.add(violation);
-		}
-
-		LocalTime lastViolationTime = null;
-		for (Violation violation : violations) {
-			if (lastViolationTime == null || violation.getTimestamp().isAfter(lastViolationTime)) {
-				lastViolationTime = violation.getTimestamp();
+		//The index is ordered by time, only the last entry is read
+		String lastKey = null;
+		try (LedgerQuery results = new LedgerQuery(stub.getStateByPartialCompositeKey(VIOLATION_BY_MEASURE, measureID))) {
+			for (KeyValue result : results) {
+				lastKey = result.getKey();
 			}
 		}
+		if (lastKey == null) {
+			return null;
+		}
 
-		return lastViolationTime;
+		Violation violation = getIndexedViolation(stub, lastKey);
+		return violation == null ? null : violation.getTimestamp();
 	}
 
 
 
 
 	/**
-	 * Remove all the measures, violations and reset the timer of the group
+	 * Reset the timer of the group and take it out of monitoring until a new policy is voted, its measures and violations are removed with purgeGroup
 	 * @param ctx the transaction context without performing the checks 
 	 * @param groupID the ID of the group
 	 */
 	@Transaction(intent = Transaction.TYPE.SUBMIT)
 	public void resetGroup(final Context ctx, final String groupID){
-		ChaincodeStub stub = ctx.getStub();
 		Group group = getGroup(ctx, groupID);
 
 		//Check if group exists
@@ -675,20 +754,285 @@ public final class EnergyCertifier implements ContractInterface {
 
 		group.resetMVT();
 
-		String groupState = gson.toJson(group);
-		stub.putStringState("group"+groupID, groupState);
+		unitOfWork(ctx).put("group" + groupID, group);
+	}
+
+	/**
+	 * Remove the measures, verdicts, stream value names, last measures, warnings and violations of a group, a bounded number per transaction
+	 * @param ctx the transaction context
+	 * @param groupID the ID of the group
+	 * @param adminID the ID of the admin
+	 * @param limit the maximum number of records removed by this transaction
+	 * @param bookmark the bookmark returned by the previous call, empty for the first one
+	 * @return the number of records removed and the bookmark of the next call, empty when the group has no more data
+	 */
+	@Transaction(intent = Transaction.TYPE.SUBMIT)
+	public String purgeGroup(final Context ctx, final String groupID, final String adminID, final String limit, final String bookmark){
+		ChaincodeStub stub = ctx.getStub();
+		int maxRecords = parseLimit(limit);
+		Group group = getGroup(ctx, groupID);
+
+		//Check if group exists
+		if(group == null) {
+			String errorMessage = String.format("Group %s does not exist", groupID);
+			System.out.println(errorMessage);
+			throw new ChaincodeException(errorMessage);
+		}
+
+		//Check if user is the admin of the group
+		if(!Role.ADMIN.equals(group.getMembers().get(adminID))) {
+			String errorMessage = String.format("User %s is not the admin of the group", adminID);
+			System.out.println(errorMessage);
+			throw new ChaincodeException(errorMessage);
+		}
+
+		//The measures of a monitored group are still being written, resetGroup takes it out of monitoring
+		if(group.getState().equals(GroupState.MONITORING)) {
+			String errorMessage = String.format("The group is in monitoring state, reset it before the purge");
+			System.out.println(errorMessage);
+			throw new ChaincodeException(errorMessage);
+		}
+
+		//The bookmark is the index the purge stopped at, the records already removed are not found again
+		int phase = bookmark.isEmpty() ? 0 : Arrays.asList(PURGE_PHASES).indexOf(bookmark);
+		if (phase < 0) {
+			String errorMessage = String.format("Bookmark %s is not valid", bookmark);
+			System.out.println(errorMessage);
+			throw new ChaincodeException(errorMessage);
+		}
+
+		String collection = group.getPayloadCollection();
+		int deleted = 0;
+		int firstPhase = phase;
+		for (; phase < PURGE_PHASES.length; phase++) {
+			//The value names are removed by a transaction of their own, which sees the measures deleted by the previous ones:
+			//if a measure is still stored, the purge goes back to the measures and every stored measure keeps its names
+			if (PURGE_PHASES[phase].equals(MeasureStreams.STREAM_NAMES)) {
+				if (phase != firstPhase) {
+					return gson.toJson(new PurgeProgress(deleted, PURGE_PHASES[phase]));
+				}
+				try (LedgerQuery measures = new LedgerQuery(stub.getStateByPartialCompositeKey(MEASURE, groupID))) {
+					if (measures.iterator().hasNext()) {
+						return gson.toJson(new PurgeProgress(deleted, MEASURE));
+					}
+				}
+			}
+			//The query is closed before returning the progress, also when the batch is full
+			try (LedgerQuery results = new LedgerQuery(stub.getStateByPartialCompositeKey(PURGE_PHASES[phase], groupID))) {
+				for (KeyValue result : results) {
+					if (deleted >= maxRecords) {
+						return gson.toJson(new PurgeProgress(deleted, PURGE_PHASES[phase]));
+					}
+					List<String> attributes = stub.splitCompositeKey(result.getKey()).getAttributes();
+					if (PURGE_PHASES[phase].equals(MEASURE)) {
+						stub.delState(stub.createCompositeKey(MEASURE_ID, attributes.get(4)).toString());
+						stub.delState(stub.createCompositeKey(VERDICT, attributes.get(4)).toString());
+						stub.delState(measureBucketKey(stub, groupID, Long.parseLong(attributes.get(3)), attributes.get(4)));
+						if (collection != null && !collection.isEmpty()) {
+							stub.delPrivateData(collection, result.getKey());
+						}
+					}
+					Violation violation = PURGE_PHASES[phase].equals(VIOLATION_BY_GROUP) ? getIndexedViolation(stub, result.getKey()) : null;
+					if (violation != null) {
+						delViolation(stub, violation);
+						if (!isMissedSample(violation)) {
+							stub.delState(stub.createCompositeKey(VERDICT, violation.getMeasureID()).toString());
+						}
+					}
+					stub.delState(result.getKey());
+					deleted++;
+				}
+			}
+		}
+
+		System.out.println("Group " + groupID + " purged");
+		return gson.toJson(new PurgeProgress(deleted, ""));
+	}
+
+	/**
+	 * Raise a missed sample violation for every user and variable of a group whose next sample deadline has passed,
+	 * a bounded number per transaction. The overdue deadlines are read in deadline order, so the cost depends only on how many expired
+	 * @param ctx the transaction context
+	 * @param groupID the ID of the group
+	 * @param limit the maximum number of expired deadlines handled by this transaction
+	 * @return the number of violations raised, less than limit when no other deadline has expired
+	 */
+	@Transaction(intent = Transaction.TYPE.SUBMIT)
+	public int sweepDeadlines(final Context ctx, final String groupID, final String limit){
+		ChaincodeStub stub = ctx.getStub();
+		int maxDeadlines = Integer.parseInt(limit);
+		Group group = getGroup(ctx, groupID);
+
+		//Check if group exists
+		if(group == null) {
+			String errorMessage = String.format("Group %s does not exist", groupID);
+			System.out.println(errorMessage);
+			throw new ChaincodeException(errorMessage);
+		}
+
+		if (getGroupState(ctx, group) != GroupState.MONITORING) {
+			String errorMessage = String.format("The group is not in monitoring state");
+			System.out.println(errorMessage);
+			throw new ChaincodeException(errorMessage);
+		}
+
+		PolicyEvaluator evaluator = PolicyEvaluator.of(group.getPolicy());
+		long now = stub.getTxTimestamp().toEpochMilli();
+		LocalTime time = LocalTime.ofInstant(stub.getTxTimestamp(), ZoneOffset.UTC).withNano(0);
+		int raised = 0;
+		try (LedgerQuery results = new LedgerQuery(stub.getStateByPartialCompositeKey(DEADLINE, groupID))) {
+			for (KeyValue result : results) {
+				List<String> attributes = stub.splitCompositeKey(result.getKey()).getAttributes();
+				long deadline = Long.parseLong(attributes.get(1));
+				if (deadline > now || raised >= maxDeadlines) {
+					break;
+				}
+				String userID = attributes.get(2);
+				String variable = attributes.get(3);
+				stub.delState(result.getKey());
+				LastMeasure lastMeasure = getLastMeasurePointer(stub, groupID, userID, variable);
+				if (lastMeasure == null || lastMeasure.getDeadline() != deadline) {
+					continue;
+				}
+
+				long sampling = evaluator.samplingSecondsOf(variable) * 1000;
+				if (sampling == 0) {
+					continue;
+				}
+
+				//The next deadline is the first one still ahead, a device silent for many periods raises one violation per sweep
+				long next = deadline + ((now - deadline) / sampling + 1) * sampling;
+				long silence = (now - lastMeasure.getTxTime()) / 1000;
+				//The missed sample is not a violation of the last measure, it refers to the deadline it missed
+				Violation violation = new Violation(DEADLINE + "_" + groupID + "_" + userID + "_" + variable + "_" + deadline, result.getKey(), userID, groupID, lastMeasure.getDeviceID(), time,
+						silence + "", "No measure of " + variable + " for " + silence + " seconds, instead of " + sampling / 1000 + " seconds");
+				putViolation(stub, violation);
+
+				stub.putStringState(stub.createCompositeKey(LAST_MEASURE, groupID, userID, variable).toString(), gson.toJson(lastMeasure.withDeadline(next)));
+				stub.putStringState(deadlineKey(stub, groupID, next, userID, variable), INDEX_VALUE);
+				raised++;
+			}
+		}
+
+		return raised;
+	}
+
+	/**
+	 * Move the measures stored under the old "measure"+measureID keys to the composite key layout
+	 * @param ctx the transaction context
+	 * @param limit the maximum number of measures moved by this transaction
+	 * @return the number of measures moved, 0 when the migration is complete
+	 */
+	@Transaction(intent = Transaction.TYPE.SUBMIT)
+	public int migrateMeasures(final Context ctx, final String limit){
+		ChaincodeStub stub = ctx.getStub();
+		int maxMeasures = Integer.parseInt(limit);
+		//The old keys carry only a LocalTime, the day is taken from the migration transaction
+		LocalDate day = LocalDate.ofInstant(stub.getTxTimestamp(), ZoneOffset.UTC);
+		int moved = 0;
+
+		MeasureStreams streams = new MeasureStreams(stub);
+		try (LedgerQuery results = new LedgerQuery(stub.getStateByRange("measure", "measurez"))) {
+			for (KeyValue result : results) {
+				if (moved >= maxMeasures) {
+					break;
+				}
+				Measure measure = LedgerCodec.decodeMeasure(result.getValue(), streams);
+				long epochMillis = day.atTime(measure.getTimestamp()).toInstant(ZoneOffset.UTC).toEpochMilli();
+				putMeasure(stub, measure, epochMillis);
+				stub.delState(result.getKey());
+				moved++;
+			}
+		}
+
+		System.out.println("Measures migrated: " + moved);
+		return moved;
+	}
+
+	/**
+	 * Write the index entries of the violations stored before the indexes existed
+	 * @param ctx the transaction context
+	 * @param fromID the ID of the violation to start from, empty to start from the first one
+	 * @param limit the maximum number of violations examined by this transaction
+	 * @return the ID to start the next call from, empty when all the violations are indexed
+	 */
+	@Transaction(intent = Transaction.TYPE.SUBMIT)
+	public String indexViolations(final Context ctx, final String fromID, final String limit){
+		ChaincodeStub stub = ctx.getStub();
+		int maxViolations = Integer.parseInt(limit);
+		//The violations carry only a LocalTime, the day is taken from this transaction
+		LocalDate day = LocalDate.ofInstant(stub.getTxTimestamp(), ZoneOffset.UTC);
+		int indexed = 0;
+
+		try (LedgerQuery results = new LedgerQuery(stub.getStateByRange("violation" + fromID, "violationz"))) {
+			for (KeyValue result : results) {
+				if (indexed >= maxViolations) {
+					return result.getKey().substring("violation".length());
+				}
+				Violation violation = LedgerCodec.decodeViolation(result.getValue());
+				indexed++;
+				//A violation that already has its entries is not indexed again, it still counts towards the limit
+				if (!violationTimeKeys(stub, violation).isEmpty()) {
+					continue;
+				}
+				long epochMillis = day.atTime(violation.getTimestamp()).toInstant(ZoneOffset.UTC).toEpochMilli();
+				putViolationIndexes(stub, violation, timeKey(epochMillis));
+			}
+		}
+
+		return "";
+	}
+
+	/**
+	 * Move the devices, the created policies and the last measures out of a user record stored before they had their own keys
+	 * @param ctx the transaction context
+	 * @param userID the ID of the user
+	 */
+	@Transaction(intent = Transaction.TYPE.SUBMIT)
+	public void migrateUser(final Context ctx, final String userID){
+		ChaincodeStub stub = ctx.getStub();
+
+		String userState = stub.getStringState("user"+userID);
+		if (userState == null || userState.isEmpty()) {
+			String errorMessage = String.format("User %s does not exist", userID);
+			System.out.println(errorMessage);
+			throw new ChaincodeException(errorMessage);
+		}
+		JsonObject legacy = JsonParser.parseString(userState).getAsJsonObject();
+
+		if (legacy.has("devices")) {
+			for (JsonElement deviceID : legacy.getAsJsonArray("devices")) {
+				stub.putStringState(stub.createCompositeKey(USER_DEVICE, userID, deviceID.getAsString()).toString(), INDEX_VALUE);
+			}
+		}
 
-		//WARN THIS WILL DELETE ALL THE MEASURES AND VIOLATIONS IN THE BLOCKCHAIN
-		QueryResultsIterator<KeyValue> results = stub.getStateByRange("measure", "measurez");
-		for (KeyValue result : results) {
-			stub.delState(result.getKey());
+		if (legacy.has("policies")) {
+			for (JsonElement policy : legacy.getAsJsonArray("policies")) {
+				String policyID = policy.getAsJsonObject().get("ID").getAsString();
+				stub.putStringState(stub.createCompositeKey(USER_POLICY, userID, policyID).toString(), INDEX_VALUE);
+			}
 		}
 
-		QueryResultsIterator<KeyValue> results2 = stub.getStateByRange("violation", "violationz");
-		for (KeyValue result : results2) {
-			stub.delState(result.getKey());
+		if (legacy.has("lastMeasure")) {
+			for (Map.Entry<String, JsonElement> entry : legacy.getAsJsonObject("lastMeasure").entrySet()) {
+				Measure measure = gson.fromJson(entry.getValue(), Measure.class);
+				if (getLastMeasurePointer(stub, measure.getGroupID(), userID, entry.getKey()) != null) {
+					continue;
+				}
+				//Only the measures already under their composite key can be pointed to, the others are found by getLastMeasure
+				String measureKey = stub.getStringState(stub.createCompositeKey(MEASURE_ID, measure.getID()).toString());
+				if (measureKey == null || measureKey.isEmpty()) {
+					continue;
+				}
+				long txTime = Long.parseLong(stub.splitCompositeKey(measureKey).getAttributes().get(3));
+				LastMeasure lastMeasure = new LastMeasure(measure.getID(), measureKey, measure.getTimestamp(), txTime, measure.getIDdevice(), 0);
+				stub.putStringState(stub.createCompositeKey(LAST_MEASURE, measure.getGroupID(), userID, entry.getKey()).toString(), gson.toJson(lastMeasure));
+			}
 		}
 
+		//The fields that are not in User anymore are dropped by the round trip
+		User user = gson.fromJson(userState, User.class);
+		unitOfWork(ctx).put("user" + userID, user);
 	}
 
 	/**
@@ -699,8 +1043,6 @@ public final class EnergyCertifier implements ContractInterface {
 	 */
 	@Transaction(intent = Transaction.TYPE.SUBMIT)
 	public void setTimer(final Context ctx, final String groupID, final String timer){
-		ChaincodeStub stub = ctx.getStub();
-
 		Group group = getGroup(ctx, groupID);
 
 		//Check if group exists
@@ -713,8 +1055,7 @@ public final class EnergyCertifier implements ContractInterface {
 		LocalTime time = LocalTime.parse(timer);
 		group.setTimer(time);
 
-		String groupState = gson.toJson(group);
-		stub.putStringState("group"+groupID, groupState);
+		unitOfWork(ctx).put("group" + groupID, group);
 	}
 
 
@@ -726,17 +1067,14 @@ public final class EnergyCertifier implements ContractInterface {
 	 */
 	@Transaction(intent = Transaction.TYPE.EVALUATE)
 	public User getUser(final Context ctx, final String ID) {
-		ChaincodeStub stub = ctx.getStub();
-
-		String userState = stub.getStringState("user"+ID);
-		if (userState == null || userState.isEmpty()) {
+		User user = unitOfWork(ctx).get("user" + ID, User.class);
+		if (user == null) {
 			String errorMessage = String.format("User %s does not exist", ID);
 			System.out.println(errorMessage);
 			throw new ChaincodeException(errorMessage);
 		}
-		System.out.println("User deserialized " + userState);
 
-		return gson.fromJson(userState, User.class);
+		return user;
 	}
 
 	/**
@@ -747,17 +1085,39 @@ public final class EnergyCertifier implements ContractInterface {
 	 */
 	@Transaction(intent = Transaction.TYPE.EVALUATE)
 	public Group getGroup(final Context ctx, final String ID) {
-		ChaincodeStub stub = ctx.getStub();
+		Group group = unitOfWork(ctx).get("group" + ID, Group.class);
+		if (group == null) {
+			String errorMessage = String.format("Group %s does not exist", ID);
+			System.out.println(errorMessage);
+			throw new ChaincodeException(errorMessage);
+		}
+
+		return group;
+	}
+
+	/**
+	 * Read from the ledger only the fields of a group the frequent checks need, the JSON is read as a stream and the rest is skipped.
+	 * A group already loaded by this transaction is not read again
+	 * @param ctx the transaction context
+	 * @param ID the ID of the group
+	 * @param memberID the user whose role in the group is kept
+	 * @param withPolicy whether the policy of the group is read
+	 * @return the view of the group
+	 */
+	private GroupView getGroupView(final Context ctx, final String ID, final String memberID, final boolean withPolicy) {
+		Group group = unitOfWork(ctx).cached("group" + ID, Group.class);
+		if (group != null) {
+			return GroupView.of(group, memberID);
+		}
 
-		String groupState = stub.getStringState("group"+ID);
+		String groupState = ctx.getStub().getStringState("group"+ID);
 		if (groupState == null || groupState.isEmpty()) {
 			String errorMessage = String.format("Group %s does not exist", ID);
 			System.out.println(errorMessage);
 			throw new ChaincodeException(errorMessage);
 		}
-		System.out.println("Group deserialized " + groupState);
 
-		return gson.fromJson(groupState, Group.class); 
+		return GroupView.read(gson, groupState, memberID, withPolicy);
 	}
 
 	/**
@@ -789,14 +1149,15 @@ public final class EnergyCertifier implements ContractInterface {
 		} else if(duration.toSeconds() >= monitoringTimer && !voteEnded) {
 			group.setState(GroupState.MONITORING);
 			System.out.println("Setting state to monitoring");
-			String mostVotedPolicy = group.endPolicyVote();
-			if (mostVotedPolicy != null) {
-				Policy mostVoted = getPolicy(ctx, mostVotedPolicy);
-				group.setPolicy(mostVoted);
+			//On a tie the proposal with the lowest digest wins
+			String mostVotedDigest = group.endPolicyVote(countBallots(ctx.getStub(), group.getID()));
+			if (mostVotedDigest != null) {
+				String proposalState = ctx.getStub().getStringState(ctx.getStub().createCompositeKey(PROPOSAL, group.getID(), mostVotedDigest).toString());
+				Proposal proposal = gson.fromJson(proposalState, Proposal.class);
+				group.setPolicy(getPolicy(ctx, proposal.getPolicyID()));
 			}
-			group.resetWarnings();
 			group.setWarning_reset_timestamp(time);
-			ctx.getStub().putStringState("group"+group.getID(), gson.toJson(group));
+			unitOfWork(ctx).put("group" + group.getID(), group);
 			return GroupState.MONITORING;
 		} else if (voteEnded) {
 			System.out.println("Vote ended, setting state to monitoring");
@@ -810,6 +1171,66 @@ public final class EnergyCertifier implements ContractInterface {
 	}
 
 
+	/**
+	 * The policy of a group read as a view. The group keeps a copy of the voted policy, which never changes, so the policy record is read instead:
+	 * the same object comes back from the cache of immutable records and its compiled rules are found without comparing them
+	 * @param ctx the transaction context
+	 * @param group the view of the group, it keeps the policy
+	 * @return the policy of the group
+	 */
+	private Policy getGroupPolicy(final Context ctx, final GroupView group) {
+		if (group.getPolicy() != null) {
+			return group.getPolicy();
+		}
+		Policy policy = Policy.DEFAULT_ID.equals(group.getPolicyID()) ? null : unitOfWork(ctx).getImmutable("policy" + group.getPolicyID(), Policy.class);
+		if (policy == null) {
+			//The default policy of a group that has not voted one has no record
+			policy = getGroupView(ctx, group.getID(), null, true).getPolicy();
+		}
+		group.usePolicy(policy);
+		return policy;
+	}
+
+	/**
+	 * Get the state of a group read as a view, the group is read in full only when the vote has to be closed
+	 * @param ctx the transaction context
+	 * @param group the view of the group, updated if the vote is closed
+	 * @return the GroupState
+	 */
+	private GroupState getGroupState(final Context ctx, final GroupView group) {
+		long seconds = Duration.between(group.getGroup_timestamp(), LocalTime.now().withNano(0)).toSeconds();
+		Integer monitoringTimer = group.getProposal_duration() + group.getVoting_duration();
+
+		if (group.getVoteEnded()) {
+			return GroupState.MONITORING;
+		} else if (seconds < group.getProposal_duration()) {
+			return GroupState.POLICYPROPOSAL;
+		} else if (seconds < monitoringTimer) {
+			return GroupState.VOTEOPEN;
+		}
+		//Closing the vote rewrites the whole group and sets the voted policy
+		Group full = getGroup(ctx, group.getID());
+		GroupState state = getGroupState(ctx, full);
+		group.refresh(full);
+		return state;
+	}
+
+	/**
+	 * Count the ballots of a group with one scan of its ballot keys
+	 * @param stub the chaincode stub
+	 * @param groupID the ID of the group
+	 * @return the number of ballots for each proposal digest
+	 */
+	private Map<String, Integer> countBallots(final ChaincodeStub stub, final String groupID) {
+		Map<String, Integer> votes = new HashMap<String, Integer>();
+		try (LedgerQuery results = new LedgerQuery(stub.getStateByPartialCompositeKey(BALLOT, groupID))) {
+			for (KeyValue result : results) {
+				votes.merge(result.getStringValue(), 1, Integer::sum);
+			}
+		}
+		return votes;
+	}
+
 	/**
 	 * Get a specific measure from the blockchain
 	 * @param ctx the transaction context
@@ -820,37 +1241,101 @@ public final class EnergyCertifier implements ContractInterface {
 	public Measure getMeasure(final Context ctx, final String measureID){
 		ChaincodeStub stub = ctx.getStub();
 
-		String measureState = stub.getStringState("measure"+measureID);
-		if (measureState == null || measureState.isEmpty()) {
+		String measureKey = stub.getStringState(stub.createCompositeKey(MEASURE_ID, measureID).toString());
+		Measure measure = (measureKey == null || measureKey.isEmpty()) ? null : LedgerCodec.decodeMeasure(stub.getState(measureKey), new MeasureStreams(stub));
+		if (measure == null) {
 			String errorMessage = String.format("Measure %s does not exist", measureID);
 			System.out.println(errorMessage);
 			throw new ChaincodeException(errorMessage);
 		}
-		System.out.println("Measure deserialized " + measureState);
 
-		return gson.fromJson(measureState, Measure.class);
+		return measure;
 	}
 
-
 	/**
-	 * Get the policy from the blockchain
+	 * Get the full payload of a measure of a group that keeps it in private data, the peer must be a member of the collection
 	 * @param ctx the transaction context
-	 * @param ID the ID of the policy
-	 * @return the policy
+	 * @param measureID the ID of the measure
+	 * @return the measure with all its values
 	 */
 	@Transaction(intent = Transaction.TYPE.EVALUATE)
-	public Policy getPolicy(final Context ctx, final String ID) {
+	public String getMeasurePayload(final Context ctx, final String measureID){
 		ChaincodeStub stub = ctx.getStub();
 
-		String policyState = stub.getStringState("policy"+ID);
-		if (policyState == null || policyState.isEmpty()) {
-			String errorMessage = String.format("Policy %s does not exist", ID);
+		Measure measure = getMeasure(ctx, measureID);
+		String measureKey = stub.getStringState(stub.createCompositeKey(MEASURE_ID, measureID).toString());
+		if (measure.getPayloadHash() == null) {
+			return gson.toJson(measure);
+		}
+
+		String collection = getGroup(ctx, measure.getGroupID()).getPayloadCollection();
+		String payload = stub.getPrivateDataUTF8(collection, measureKey);
+		if (payload == null || payload.isEmpty()) {
+			String errorMessage = String.format("Payload of measure %s is not available on this peer", measureID);
+			System.out.println(errorMessage);
+			throw new ChaincodeException(errorMessage);
+		}
+		return payload;
+	}
+
+	/**
+	 * Check that the private payload of a measure matches the digest in public state, it does not need the payload itself
+	 * @param ctx the transaction context
+	 * @param measureID the ID of the measure
+	 * @return true if the digests match
+	 */
+	@Transaction(intent = Transaction.TYPE.EVALUATE)
+	public boolean verifyMeasure(final Context ctx, final String measureID){
+		ChaincodeStub stub = ctx.getStub();
+
+		Measure measure = getMeasure(ctx, measureID);
+		if (measure.getPayloadHash() == null) {
+			String errorMessage = String.format("Measure %s has no private payload", measureID);
+			System.out.println(errorMessage);
+			throw new ChaincodeException(errorMessage);
+		}
+
+		String measureKey = stub.getStringState(stub.createCompositeKey(MEASURE_ID, measureID).toString());
+		String collection = getGroup(ctx, measure.getGroupID()).getPayloadCollection();
+		byte[] privateHash = stub.getPrivateDataHash(collection, measureKey);
+		return privateHash != null && measure.getPayloadHash().equals(toHex(privateHash));
+	}
+
+
+	/**
+	 * Get the policy from the blockchain
+	 * @param ctx the transaction context
+	 * @param ID the ID of the policy
+	 * @return the policy
+	 */
+	@Transaction(intent = Transaction.TYPE.EVALUATE)
+	public Policy getPolicy(final Context ctx, final String ID) {
+		Policy policy = unitOfWork(ctx).getImmutable("policy" + ID, Policy.class);
+		if (policy == null) {
+			String errorMessage = String.format("Policy %s does not exist", ID);
+			System.out.println(errorMessage);
+			throw new ChaincodeException(errorMessage);
+		}
+
+		return policy;
+	}
+
+	/**
+	 * Get a device from the ledger
+	 * @param ctx the transaction context
+	 * @param ID the ID of the device
+	 * @return the device
+	 */
+	@Transaction(intent = Transaction.TYPE.EVALUATE)
+	public Device getDevice(final Context ctx, final String ID) {
+		Device device = unitOfWork(ctx).getImmutable("device" + ID, Device.class);
+		if (device == null) {
+			String errorMessage = String.format("Device %s does not exist", ID);
 			System.out.println(errorMessage);
 			throw new ChaincodeException(errorMessage);
 		}
-		System.out.println("Policy deserialized " + policyState);
 
-		return gson.fromJson(policyState, Policy.class);
+		return device;
 	}
 
 
@@ -888,19 +1373,57 @@ public final class EnergyCertifier implements ContractInterface {
 			throw new ChaincodeException(errorMessage);
 		}
 
-		QueryResultsIterator<KeyValue> results = stub.getStateByRange("measure", "measurez");
-		Measure measure = null;
-		for (KeyValue result : results) {
-			String measureState = result.getStringValue();
-			Measure measureTemp = gson.fromJson(measureState, Measure.class);
-			if(measureTemp.getUserID().equals(userID) && measureTemp.getGroupID().equals(groupID)){
-				if(measure == null || measureTemp.getTimestamp().isAfter(measure.getTimestamp())) {
-					measure = measureTemp;
+		//One pointer per monitored variable, the newest one is the last measure
+		LastMeasure lastMeasure = null;
+		try (LedgerQuery pointers = new LedgerQuery(stub.getStateByPartialCompositeKey(LAST_MEASURE, groupID, userID))) {
+			for (KeyValue pointer : pointers) {
+				LastMeasure pointerTemp = gson.fromJson(pointer.getStringValue(), LastMeasure.class);
+				if(lastMeasure == null || pointerTemp.getTxTime() > lastMeasure.getTxTime()) {
+					lastMeasure = pointerTemp;
 				}
 			}
 		}
+		if (lastMeasure != null) {
+			return LedgerCodec.decodeMeasure(stub.getState(lastMeasure.getMeasureKey()), new MeasureStreams(stub));
+		}
 
-		return measure;
+		//Measures stored before the pointers existed: keys are ordered by device and then by time, so only the time attribute is compared
+		String lastTimeKey = null;
+		byte[] lastMeasureState = null;
+		try (LedgerQuery results = new LedgerQuery(stub.getStateByPartialCompositeKey(MEASURE, groupID, userID))) {
+			for (KeyValue result : results) {
+				String timeKey = stub.splitCompositeKey(result.getKey()).getAttributes().get(3);
+				if(lastTimeKey == null || timeKey.compareTo(lastTimeKey) > 0) {
+					lastTimeKey = timeKey;
+					lastMeasureState = result.getValue();
+				}
+			}
+		}
+
+		return LedgerCodec.decodeMeasure(lastMeasureState, new MeasureStreams(stub));
+	}
+
+
+	/**
+	 * Get the last measure of a variable from the blockchain
+	 * @param ctx the transaction context
+	 * @param groupID the ID of the group
+	 * @param userID the ID of the user
+	 * @param variable the monitored variable
+	 * @return the last measure
+	 */
+	@Transaction(intent = Transaction.TYPE.EVALUATE)
+	public String getLastMeasureOf(final Context ctx, final String groupID, final String userID, final String variable) {
+		ChaincodeStub stub = ctx.getStub();
+
+		LastMeasure lastMeasure = getLastMeasurePointer(stub, groupID, userID, variable);
+		if (lastMeasure == null) {
+			String errorMessage = String.format("User %s has no measure of %s in group %s", userID, variable, groupID);
+			System.out.println(errorMessage);
+			throw new ChaincodeException(errorMessage);
+		}
+
+		return gson.toJson(LedgerCodec.decodeMeasure(stub.getState(lastMeasure.getMeasureKey()), new MeasureStreams(stub)));
 	}
 
 
@@ -914,15 +1437,14 @@ public final class EnergyCertifier implements ContractInterface {
 	public String getViolation(final Context ctx, final String violationID) {
 		ChaincodeStub stub = ctx.getStub();
 
-		String violationState = stub.getStringState("violation"+violationID);
-		if (violationState == null || violationState.isEmpty()) {
+		Violation violation = LedgerCodec.decodeViolation(stub.getState("violation"+violationID));
+		if (violation == null) {
 			String errorMessage = String.format("Violation %s does not exist", violationID);
 			System.out.println(errorMessage);
 			throw new ChaincodeException(errorMessage);
 		}
-		System.out.println("Violation deserialized " + violationState);
 
-		return violationState;
+		return gson.toJson(violation);
 	}
 
 	
@@ -932,7 +1454,7 @@ public final class EnergyCertifier implements ContractInterface {
 	 * @param groupID the ID of the group
 	 * @return violations of the group 
 	 */
-	@Transaction(intent = Transaction.TYPE.SUBMIT)
+	@Transaction(intent = Transaction.TYPE.EVALUATE)
 	public String getViolationsInGroup(final Context ctx, final String groupID) {
 		ChaincodeStub stub = ctx.getStub();
 		
@@ -942,19 +1464,86 @@ public final class EnergyCertifier implements ContractInterface {
 			throw new ChaincodeException(errorMessage);
 		}
 
-		QueryResultsIterator<KeyValue> results = stub.getStateByRange("violation", "violationz");
 		List<Violation> violations = new ArrayList<Violation>();
+		try (LedgerQuery results = new LedgerQuery(stub.getStateByPartialCompositeKey(VIOLATION_BY_GROUP, groupID))) {
+			for (KeyValue result : results) {
+				Violation violation = getIndexedViolation(stub, result.getKey());
+				if (violation != null) {
+					violations.add(violation);
+				}
+			}
+		}
+
+		String violationsJson = gson.toJson(violations);
+		return violationsJson;
+	}
+
+	/**
+	 * Getting the violations of a user in a group
+	 * @param ctx the transaction context
+	 * @param groupID the ID of the group
+	 * @param userID the ID of the user
+	 * @return violations of the user in the group, in time order
+	 */
+	@Transaction(intent = Transaction.TYPE.EVALUATE)
+	public String getViolationsOfUser(final Context ctx, final String groupID, final String userID) {
+		ChaincodeStub stub = ctx.getStub();
 
-		for (KeyValue result : results) {
-			String violationState = result.getStringValue();
-			Violation violation = gson.fromJson(violationState, Violation.class);
-			violations.add(violation);
+		List<Violation> violations = new ArrayList<Violation>();
+		try (LedgerQuery results = new LedgerQuery(stub.getStateByPartialCompositeKey(VIOLATION_BY_USER, groupID, userID))) {
+			for (KeyValue result : results) {
+				Violation violation = getIndexedViolation(stub, result.getKey());
+				if (violation != null) {
+					violations.add(violation);
+				}
+			}
 		}
 
 		String violationsJson = gson.toJson(violations);
 		return violationsJson;
 	}
 
+	/**
+	 * Getting the devices registered by a user
+	 * @param ctx the transaction context
+	 * @param userID the ID of the user
+	 * @return the IDs of the devices
+	 */
+	@Transaction(intent = Transaction.TYPE.EVALUATE)
+	public String getDevicesOfUser(final Context ctx, final String userID) {
+		ChaincodeStub stub = ctx.getStub();
+
+		List<String> devices = new ArrayList<String>();
+		try (LedgerQuery results = new LedgerQuery(stub.getStateByPartialCompositeKey(USER_DEVICE, userID))) {
+			for (KeyValue result : results) {
+				devices.add(stub.splitCompositeKey(result.getKey()).getAttributes().get(1));
+			}
+		}
+
+		return gson.toJson(devices);
+	}
+
+	/**
+	 * Getting the policies created by a user
+	 * @param ctx the transaction context
+	 * @param userID the ID of the user
+	 * @return the policies
+	 */
+	@Transaction(intent = Transaction.TYPE.EVALUATE)
+	public String getPoliciesOfUser(final Context ctx, final String userID) {
+		ChaincodeStub stub = ctx.getStub();
+
+		List<Policy> policies = new ArrayList<Policy>();
+		try (LedgerQuery results = new LedgerQuery(stub.getStateByPartialCompositeKey(USER_POLICY, userID))) {
+			for (KeyValue result : results) {
+				String policyID = stub.splitCompositeKey(result.getKey()).getAttributes().get(1);
+				policies.add(getPolicy(ctx, policyID));
+			}
+		}
+
+		return gson.toJson(policies);
+	}
+
 
 	/**
 	 * Get all the measures on the blockchain
@@ -965,18 +1554,13 @@ public final class EnergyCertifier implements ContractInterface {
 	public String getAllMeasures(final Context ctx){
 		ChaincodeStub stub = ctx.getStub();
 
-		QueryResultsIterator<KeyValue> results = stub.getStateByRange("measure", "measurez");
-		List<Measure> queryResults = new ArrayList<Measure>();
-
-		for (KeyValue result : results) {
-			String value = result.getStringValue();
-			Measure measure = gson.fromJson(value, Measure.class);
-			queryResults.add(measure);
-		}
+		QueryResultsIterator<KeyValue> results = stub.getStateByPartialCompositeKey(MEASURE);
 
-		String queryResultsJ = gson.toJson(queryResults);
-
-		return queryResultsJ;
+		return writeJson(out -> {
+			out.beginArray();
+			writeValues(out, results, new MeasureStreams(stub));
+			out.endArray();
+		});
 	}
 
 	/**
@@ -989,17 +1573,12 @@ public final class EnergyCertifier implements ContractInterface {
 		ChaincodeStub stub = ctx.getStub();
 
 		QueryResultsIterator<KeyValue> results = stub.getStateByRange("user", "userz");
-		List<User> queryResults = new ArrayList<User>();
-
-		for (KeyValue result : results) {
-			String value = result.getStringValue();
-			User user = gson.fromJson(value, User.class);
-			queryResults.add(user);
-		}
 
-		String queryResultsJ = gson.toJson(queryResults);
-
-		return queryResultsJ;
+		return writeJson(out -> {
+			out.beginArray();
+			writeValues(out, results, new MeasureStreams(stub));
+			out.endArray();
+		});
 	}
 
 
@@ -1013,17 +1592,12 @@ public final class EnergyCertifier implements ContractInterface {
 		ChaincodeStub stub = ctx.getStub();
 
 		QueryResultsIterator<KeyValue> results = stub.getStateByRange("group", "groupz");
-		List<Group> queryResults = new ArrayList<Group>();
-
-		for (KeyValue result : results) {
-			String value = result.getStringValue();
-			Group group = gson.fromJson(value, Group.class);
-			queryResults.add(group);
-		}
 
-		String queryResultsJ = gson.toJson(queryResults);
-
-		return queryResultsJ;
+		return writeJson(out -> {
+			out.beginArray();
+			writeValues(out, results, new MeasureStreams(stub));
+			out.endArray();
+		});
 	}
 
 
@@ -1037,17 +1611,12 @@ public final class EnergyCertifier implements ContractInterface {
 		ChaincodeStub stub = ctx.getStub();
 
 		QueryResultsIterator<KeyValue> results = stub.getStateByRange("violation", "violationz");
-		List<Violation> queryResults = new ArrayList<Violation>();
-
-		for (KeyValue result : results) {
-			String value = result.getStringValue();
-			Violation violation = gson.fromJson(value, Violation.class);
-			queryResults.add(violation);
-		}
 
-		String queryResultsJ = gson.toJson(queryResults);
-
-		return queryResultsJ;
+		return writeJson(out -> {
+			out.beginArray();
+			writeValues(out, results, new MeasureStreams(stub));
+			out.endArray();
+		});
 	}
 
 
@@ -1060,154 +1629,306 @@ public final class EnergyCertifier implements ContractInterface {
 	public String getAll(final Context ctx){
 		ChaincodeStub stub = ctx.getStub();
 
-		QueryResultsIterator<KeyValue> results = stub.getStateByRange("", "");
-		List<String> queryResults = new ArrayList<String>();
+		MeasureStreams streams = new MeasureStreams(stub);
+
+		return writeJson(out -> {
+			out.beginArray();
+			writeValues(out, stub.getStateByRange("", ""), streams);
+			//Measures live in the composite key namespace, which a plain range does not cover
+			writeValues(out, stub.getStateByPartialCompositeKey(MEASURE), streams);
+			out.endArray();
+		});
+	}
 
-		for (KeyValue result : results) {
-			String value = result.getStringValue();
-			queryResults.add(value);
-		}
 
-		String queryResultsJ = gson.toJson(queryResults);
 
-		return queryResultsJ;
+	/**
+	 * Get a page of the measures on the blockchain
+	 * @param ctx the transaction context
+	 * @param pageSize the maximum number of measures in the page
+	 * @param bookmark the bookmark returned with the previous page, empty for the first page
+	 * @return the measures of the page and the bookmark of the next one
+	 */
+	@Transaction(intent = Transaction.TYPE.EVALUATE)
+	public String getMeasuresPage(final Context ctx, final String pageSize, final String bookmark){
+		ChaincodeStub stub = ctx.getStub();
+
+		QueryResultsIteratorWithMetadata<KeyValue> results = stub.getStateByPartialCompositeKeyWithPagination(stub.createCompositeKey(MEASURE), parsePageSize(pageSize), bookmark);
+
+		MeasureStreams streams = new MeasureStreams(stub);
+
+		return gson.toJson(toPage(results, value -> LedgerCodec.decodeMeasure(value, streams)));
 	}
 
+	/**
+	 * Get a page of the users on the blockchain
+	 * @param ctx the transaction context
+	 * @param pageSize the maximum number of users in the page
+	 * @param bookmark the bookmark returned with the previous page, empty for the first page
+	 * @return the users of the page and the bookmark of the next one
+	 */
+	@Transaction(intent = Transaction.TYPE.EVALUATE)
+	public String getUsersPage(final Context ctx, final String pageSize, final String bookmark){
+		ChaincodeStub stub = ctx.getStub();
+
+		QueryResultsIteratorWithMetadata<KeyValue> results = stub.getStateByRangeWithPagination("user", "userz", parsePageSize(pageSize), bookmark);
 
+		return gson.toJson(toPage(results, User.class));
+	}
 
-	private Pair<Boolean, Violation> check_OneOpeatorValueRule(String measureID, boolean hasViolated, String operator, Float threshold, Float value_measured, Integer user_violation, Integer tolerance, Group group, String rule_id, String user_id, String error, LocalTime time, String deviceID){
-		Violation violation = new Violation();
-		switch (operator){ 
-			case ">":
-				if (value_measured <= threshold){
-					group.setUsersWarnings(user_id, rule_id, measureID);
+	/**
+	 * Get a page of the groups on the blockchain
+	 * @param ctx the transaction context
+	 * @param pageSize the maximum number of groups in the page
+	 * @param bookmark the bookmark returned with the previous page, empty for the first page
+	 * @return the groups of the page and the bookmark of the next one
+	 */
+	@Transaction(intent = Transaction.TYPE.EVALUATE)
+	public String getGroupsPage(final Context ctx, final String pageSize, final String bookmark){
+		ChaincodeStub stub = ctx.getStub();
 
-					if (((user_violation + 1) >= tolerance) && hasViolated == false){
-						hasViolated = true;
-						violation = new Violation(measureID, measureID, user_id, group.getID(), deviceID, time,String.valueOf(value_measured), error);
-						//group.setUsersWarnings(user_id, rule_id, 0);
-					}
-				}
-				break;
-			case ">=":
-				if (value_measured < threshold){
-					group.setUsersWarnings(user_id, rule_id, measureID);
-					if (((user_violation + 1) >= tolerance) && hasViolated == false){
-						violation = new Violation(measureID, measureID, user_id, group.getID(), deviceID, time, String.valueOf(value_measured), error);
-						hasViolated = true;
-						//group.setUsersWarnings(user_id, rule_id, 0);
+		QueryResultsIteratorWithMetadata<KeyValue> results = stub.getStateByRangeWithPagination("group", "groupz", parsePageSize(pageSize), bookmark);
 
-					}
-				}
-				break;
-			case "<":
-				if (value_measured >= threshold){
-					group.setUsersWarnings(user_id, rule_id, measureID);
-					if (((user_violation + 1) >= tolerance) && hasViolated == false){		
-						violation = new Violation(measureID, measureID, user_id, group.getID(), deviceID, time, String.valueOf(value_measured), error);
-						hasViolated = true;
-						//group.setUsersWarnings(user_id, rule_id, 0);
-					}
-				}
-				break;
-			case "<=":
-				if (value_measured >= threshold){
-					group.setUsersWarnings(user_id, rule_id, measureID);
-					if (((user_violation + 1) >= tolerance) && hasViolated == false){
-						violation = new Violation(measureID, measureID, user_id, group.getID(), deviceID, time, String.valueOf(value_measured), error);
-						hasViolated = true;
-						//group.setUsersWarnings(user_id, rule_id, 0);
-					}
-				}
-				break;
-			case "==":
-				if (! value_measured.equals(threshold)){
-					group.setUsersWarnings(user_id, rule_id, measureID);
-					if (((user_violation + 1) >= tolerance) && hasViolated == false){
-						violation = new Violation(measureID, measureID, user_id, group.getID(), deviceID, time, String.valueOf(value_measured), error);
-						hasViolated = true;
-						//group.setUsersWarnings(user_id, rule_id, 0);
-					}
-				}
-				break;
-			case ">=<":
-				if (value_measured.equals(threshold)){
-					group.setUsersWarnings(user_id, rule_id, measureID);
-					if (((user_violation + 1) >= tolerance) && hasViolated == false){
-						violation = new Violation(measureID, measureID, user_id, group.getID(), deviceID, time, String.valueOf(value_measured), error);
-						hasViolated = true;
-						//group.setUsersWarnings(user_id, rule_id, 0);
-					}
+		return gson.toJson(toPage(results, Group.class));
+	}
+
+	/**
+	 * Get a page of the violations on the blockchain
+	 * @param ctx the transaction context
+	 * @param pageSize the maximum number of violations in the page
+	 * @param bookmark the bookmark returned with the previous page, empty for the first page
+	 * @return the violations of the page and the bookmark of the next one
+	 */
+	@Transaction(intent = Transaction.TYPE.EVALUATE)
+	public String getViolationsPage(final Context ctx, final String pageSize, final String bookmark){
+		ChaincodeStub stub = ctx.getStub();
+
+		QueryResultsIteratorWithMetadata<KeyValue> results = stub.getStateByRangeWithPagination("violation", "violationz", parsePageSize(pageSize), bookmark);
+
+		return gson.toJson(toPage(results, LedgerCodec::decodeViolation));
+	}
+
+	/**
+	 * Get a page of all the simple keys of the blockchain
+	 * @param ctx the transaction context
+	 * @param pageSize the maximum number of values in the page
+	 * @param bookmark the bookmark returned with the previous page, empty for the first page
+	 * @return the values of the page and the bookmark of the next one
+	 */
+	@Transaction(intent = Transaction.TYPE.EVALUATE)
+	public String getAllPage(final Context ctx, final String pageSize, final String bookmark){
+		ChaincodeStub stub = ctx.getStub();
+
+		MeasureStreams streams = new MeasureStreams(stub);
+
+		//Same fields as Page, the records are the stored values
+		try (LedgerQuery results = new LedgerQuery(stub.getStateByRangeWithPagination("", "", parsePageSize(pageSize), bookmark))) {
+			return writeJson(out -> {
+				out.beginObject();
+				out.name("records").beginArray();
+				for (KeyValue result : results) {
+					writeValue(out, result, streams);
 				}
-				break;
-			default:
-				String errorMessage = String.format("Operator %s is not valid", operator);
-				System.out.println(errorMessage);
-				throw new ChaincodeException(errorMessage);
+				out.endArray();
+				QueryResponseMetadata metadata = results.getMetadata();
+				out.name("fetchedRecordsCount").value(metadata.getFetchedRecordsCount());
+				out.name("bookmark").value(metadata.getBookmark());
+				out.endObject();
+			});
 		}
-		return new Pair<Boolean, Violation> (hasViolated, violation);
 	}
 
-	private Pair<Boolean, Violation> check_OneSideValueRule(String measureID, boolean hasViolated, String operator,  Float threshold, Float value_measured, Integer user_violation, Integer tolerance, Group group, String rule_id, String user_id, String error, LocalTime time, String deviceID){
-		Violation violation = new Violation();
-		switch (operator){ 
-			case ">":
-				if (value_measured <= threshold){
-					group.setUsersWarnings(user_id, rule_id, measureID);
-					if (((user_violation + 1) >= tolerance) && hasViolated == false){
-						hasViolated = true;
-						violation = new Violation(measureID, measureID, user_id, group.getID(), deviceID, time, String.valueOf(value_measured), error);
+	private interface JsonBody {
+		void writeTo(JsonWriter out) throws IOException;
+	}
+
+	/**
+	 * Write a query result into a single buffer
+	 * @param body writes the result
+	 * @return the JSON result
+	 */
+	private String writeJson(final JsonBody body) {
+		StringWriter buffer = new StringWriter();
+		try (JsonWriter out = new JsonWriter(buffer)) {
+			body.writeTo(out);
+		} catch (IOException e) {
+			String errorMessage = String.format("Cannot write the query result: %s", e.getMessage());
+			System.out.println(errorMessage);
+			throw new ChaincodeException(errorMessage);
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * Write the values of a query as they are read, the stored JSON is copied without parsing it and only the binary values are encoded.
+	 * The query is closed once read
+	 * @param out the writer of the result
+	 * @param results the query
+	 * @param streams the streams of the measures read by the query
+	 */
+	private void writeValues(final JsonWriter out, final QueryResultsIterator<KeyValue> results, final MeasureStreams streams) throws IOException {
+		try (LedgerQuery query = new LedgerQuery(results)) {
+			for (KeyValue result : query) {
+				writeValue(out, result, streams);
+			}
+		}
+	}
+
+	/**
+	 * Write the value of a key as JSON, the measures and violations in the binary format are decoded
+	 * @param out the writer of the result
+	 * @param result the key and its value
+	 * @param streams the streams of the measures read by the query
+	 */
+	private void writeValue(final JsonWriter out, final KeyValue result, final MeasureStreams streams) throws IOException {
+		byte[] value = result.getValue();
+		if (!LedgerCodec.isBinary(value)) {
+			out.jsonValue(new String(value, StandardCharsets.UTF_8));
+		} else if (result.getKey().startsWith("violation")) {
+			gson.toJson(LedgerCodec.decodeViolation(value), Violation.class, out);
+		} else {
+			gson.toJson(LedgerCodec.decodeMeasure(value, streams), Measure.class, out);
+		}
+	}
+
+	private int parseLimit(final String limit) {
+		int size = Integer.parseInt(limit);
+		if (size < 1) {
+			String errorMessage = String.format("Limit %s is not a positive number", limit);
+			System.out.println(errorMessage);
+			throw new ChaincodeException(errorMessage);
+		}
+		return size;
+	}
+
+	private int parsePageSize(final String pageSize) {
+		int size = Integer.parseInt(pageSize);
+		if (size < 1 || size > MAX_PAGE_SIZE) {
+			String errorMessage = String.format("Page size %s is not between 1 and %d", pageSize, MAX_PAGE_SIZE);
+			System.out.println(errorMessage);
+			throw new ChaincodeException(errorMessage);
+		}
+		return size;
+	}
+
+	private <T> Page<T> toPage(final QueryResultsIteratorWithMetadata<KeyValue> results, final Class<T> type) {
+		return toPage(results, value -> gson.fromJson(new String(value, StandardCharsets.UTF_8), type));
+	}
+
+	private <T> Page<T> toPage(final QueryResultsIteratorWithMetadata<KeyValue> results, final Function<byte[], T> decoder) {
+		List<T> records = new ArrayList<T>();
+
+		try (LedgerQuery query = new LedgerQuery(results)) {
+			for (KeyValue result : query) {
+				records.add(decoder.apply(result.getValue()));
+			}
+
+			QueryResponseMetadata metadata = query.getMetadata();
+			return new Page<T>(records, metadata.getFetchedRecordsCount(), metadata.getBookmark());
+		}
+	}
+
+
+	/**
+	 * Check a measure against the rules of the policy in one pass, the value rules first since they do not read the ledger, the aggregate rules last.
+	 * Only the rules of the variables carried by the measure are visited, the last tick is read once per variable.
+	 * It stops at the first violation, the warnings of the rules checked are added to the user warnings
+	 * @param stub the chaincode stub
+	 * @param group the group of the measure
+	 * @param evaluator the compiled policy of the group
+	 * @param measure the measure
+	 * @param frame the values of the measure
+	 * @param epochMillis the epoch millis of the transaction that stored the measure, it places the measure in the aggregate windows and gives the time since the last tick
+	 * @param warnings the warnings of the user, read only for the rules the measure violates
+	 * @param lastTicks the epoch millis of the last ticks already known, the others are read from the last measure records
+	 * @param aggregates the aggregate states already known, updated only if the measure respects the policy
+	 * @param fromLedger whether the missing aggregate states are read from the ledger, false while replaying
+	 * @return the violation, null if the measure respects the policy
+	 */
+	private Violation evaluateMeasure(final ChaincodeStub stub, final GroupView group, final PolicyEvaluator evaluator, final Measure measure, final MeasureFrame frame, final long epochMillis,
+			final UserWarnings warnings, final Map<String, Long> lastTicks, final Map<String, AggregateState> aggregates, final boolean fromLedger) {
+		String measureID = measure.getID();
+		String userId = measure.getUserID();
+		LocalTime time = measure.getTimestamp();
+
+		for (int i = 0; i < frame.size(); i++) {
+			if (!frame.isFirst(i)) {
+				continue;
+			}
+			float value_measured = frame.value(i);
+			for (PolicyEvaluator.ValueRuleCheck rule : evaluator.valueRulesOf(frame.name(i))) {
+				if (rule.isViolatedBy(value_measured)) {
+					Warning warning = warnings.of(rule.getID());
+					warning.addMeasure(measureID);
+					if (warning.getCount() >= rule.getTolerance()) {
+						return new Violation(measureID, measureID, userId, group.getID(), measure.getIDdevice(), time, String.valueOf(value_measured), rule.describe(value_measured));
 					}
 				}
-				break;
-			case ">=":
-				if (value_measured < threshold){
-					group.setUsersWarnings(user_id, rule_id, measureID);
-					if (((user_violation + 1) >= tolerance) && hasViolated == false){
-						hasViolated = true;
-						violation = new Violation(measureID, measureID, user_id, group.getID(), deviceID, time, String.valueOf(value_measured), error);
-						//group.setUsersWarnings(user_id, rule_id, 0);
+			}
+		}
+
+		for (int i = 0; i < frame.size(); i++) {
+			String monitoring = frame.name(i);
+			List<PolicyEvaluator.TimeRuleCheck> rules = evaluator.timeRulesOf(monitoring);
+			if (!frame.isFirst(i) || rules.isEmpty()) {
+				continue;
+			}
+			//Se è la prima misurazione, prende in considerazione il fine timer di voto
+			//Alle misurazioni successive, prende in considerazione l'ultimo timer di misurazione
+			//The gap is taken from the transaction times, a LocalTime goes back at midnight
+			Long lastTick = replayLastTick(stub, lastTicks, group.getID(), userId, monitoring);
+			long elapsed;
+			if (lastTick != null) {
+				elapsed = (epochMillis - lastTick) / 1000;
+			} else {
+				//The group timer has no day, it is the last time it was reached before the measure
+				elapsed = Math.floorMod(Duration.between(group.getGroup_timestamp(), time).toSeconds(), SECONDS_PER_DAY);
+			}
+			for (PolicyEvaluator.TimeRuleCheck rule : rules) {
+				if (elapsed > rule.getSamplingSeconds()) {
+					Warning warning = warnings.of(rule.getID());
+					warning.addMeasure(measureID);
+					if (warning.getCount() >= rule.getTolerance()) {
+						return new Violation(measureID, measureID, userId, group.getID(), measure.getIDdevice(), time, elapsed + "", elapsed + " seconds, instead of " + rule.getSamplingSeconds() + " seconds");
 					}
 				}
-				break;
-			case "<":
-				if (value_measured >= threshold){
-					group.setUsersWarnings(user_id, rule_id, measureID);
-					if (((user_violation + 1) >= tolerance) && hasViolated == false){						
-						hasViolated = true;
-						violation = new Violation(measureID, measureID, user_id, group.getID(), deviceID, time, String.valueOf(value_measured), error);
-						//group.setUsersWarnings(user_id, rule_id, 0);
-					}
+			}
+		}
+
+		long epochSecond = Math.floorDiv(epochMillis, 1000L);
+		List<AggregateState> updated = new ArrayList<AggregateState>();
+		for (int i = 0; i < frame.size(); i++) {
+			if (!frame.isFirst(i)) {
+				continue;
+			}
+			float value_measured = frame.value(i);
+			for (PolicyEvaluator.AggregateRuleCheck rule : evaluator.aggregateRulesOf(frame.name(i))) {
+				String stateKey = userId + "~" + rule.getID();
+				AggregateState state = aggregates.get(stateKey);
+				if (state == null && fromLedger) {
+					state = getAggregateState(stub, group.getID(), userId, rule.getID());
+				}
+				long window = rule.windowOf(epochSecond);
+				if (state == null) {
+					state = new AggregateState(group.getID(), userId, rule.getID(), window);
 				}
-				break;
-			case "<=":
-				if (value_measured >= threshold){
-					group.setUsersWarnings(user_id, rule_id, measureID);
-					if (((user_violation + 1) >= tolerance) && hasViolated == false){
-						hasViolated = true;
-						violation = new Violation(measureID, measureID, user_id, group.getID(), deviceID, time, String.valueOf(value_measured), error);
-						//group.setUsersWarnings(user_id, rule_id, 0);
+				state = state.add(window, value_measured);
+				double aggregate = state.value(rule.getFunction());
+				if (rule.isViolatedBy(aggregate)) {
+					Warning warning = warnings.of(rule.getID());
+					warning.addMeasure(measureID);
+					if (warning.getCount() >= rule.getTolerance()) {
+						return new Violation(measureID, measureID, userId, group.getID(), measure.getIDdevice(), time, String.valueOf(aggregate), rule.describe(aggregate));
 					}
 				}
-				break;
-			default:
-				String errorMessage = String.format("Operator %s is not valid", operator);
-				System.out.println(errorMessage);
-				throw new ChaincodeException(errorMessage);
+				updated.add(state);
+			}
 		}
-		return new Pair<Boolean, Violation> (hasViolated, violation);
-	}
-
-
-	private Pair<Boolean, Violation> check_Range_ValueRule(String measureID, boolean hasViolated, String operator1, Float threshold1, String operator2, Float threshold2, Integer tolerance, Integer user_violation,  Float value_measured, Group group, String rule_id, String userId,  String error, LocalTime time, String deviceID){
-		
-		Pair<Boolean, Violation> result_one = check_OneSideValueRule(measureID, hasViolated, operator1, threshold1, value_measured, user_violation, tolerance, group, rule_id, userId, error, time, deviceID);
-		if (result_one.getLeft()){
-			return result_one;
-		}else{
-			Pair<Boolean, Violation> result_two = check_OneSideValueRule(measureID, hasViolated, operator2, threshold2, value_measured, user_violation, tolerance, group, rule_id, userId, error, time, deviceID);
-			return result_two;
+		for (AggregateState state : updated) {
+			aggregates.put(state.getUserID() + "~" + state.getRuleID(), state);
 		}
+
+		return null;
 	}
 
 	/**
@@ -1217,11 +1938,26 @@ public final class EnergyCertifier implements ContractInterface {
 	 * @param measureUUID the UUID of the measure
 	 * @param values the values 
 	 * @param valueNames the name of the values 
+	 * @return the verdict on the measure, the stored one if the measure was already sent
 	 */
 	@Transaction(intent = Transaction.TYPE.SUBMIT)
-	public void sendAndCheck(final Context ctx, final String measureID, final String measureUUID, final String values, final String valueNames){
+	public String sendAndCheck(final Context ctx, final String measureID, final String measureUUID, final String values, final String valueNames){
 		ChaincodeStub stub = ctx.getStub();
 
+		//A retried submission gets the verdict of the first one, the rules and the warnings are not touched again
+		String digest = toHex(sha256((measureUUID + "\n" + values + "\n" + valueNames).getBytes(StandardCharsets.UTF_8)));
+		String verdictKey = stub.createCompositeKey(VERDICT, measureID).toString();
+		String verdictState = stub.getStringState(verdictKey);
+		if (verdictState != null && !verdictState.isEmpty()) {
+			Verdict verdict = gson.fromJson(verdictState, Verdict.class);
+			if (!digest.equals(verdict.getDigest())) {
+				String errorMessage = String.format("Measure %s was already sent with different values", measureID);
+				System.out.println(errorMessage);
+				throw new ChaincodeException(errorMessage);
+			}
+			return verdictState;
+		}
+
 		String valueNamesString = valueNames.substring(1, valueNames.length()-1);
 		valueNamesString = valueNamesString.replace("\"", "");
 		List<String> valueNamesList = Arrays.asList(valueNamesString.split(","));
@@ -1229,22 +1965,20 @@ public final class EnergyCertifier implements ContractInterface {
 		String valuesString = values.substring(1, values.length()-1);
 		valuesString = valuesString.replace("\"", "");
 		List<String> valuesList = Arrays.asList(valuesString.split(","));
-		//Cast values to float
-		List<Float> valuesListFloat = new ArrayList<Float>();
-		for (String value : valuesList) {
-			valuesListFloat.add(Float.valueOf(value));
-		}
+		//Cast values to float once, the rules read them from the frame
+		MeasureFrame frame = new MeasureFrame(valueNamesList, valuesList);
 		//Get parameter from UUID JSON string
-		IDToken UUIDToken = gson.fromJson(stub.getStringState("UUID"+measureUUID), IDToken.class);
+		MeasureStreams streams = new MeasureStreams(stub);
+		IDToken UUIDToken = streams.token(measureUUID);
 		System.out.println("UUIDToken: " + UUIDToken);
 
 		String userId = UUIDToken.getUserid();
 		String groupID = UUIDToken.getGroupid();
 		String deviceID = UUIDToken.getDeviceid();
 
-		Group group = getGroup(ctx, groupID);
+		//Only the fields checked here are read from the group, its other members and its rules are skipped
+		GroupView group = getGroupView(ctx, groupID, userId, false);
 		User user = getUser(ctx, userId);
-		Policy policy = group.getPolicy();
 
 		//Check if group exists
 		if(group == null) {
@@ -1261,14 +1995,14 @@ public final class EnergyCertifier implements ContractInterface {
 		}
 
 		//Check if user is in the group
-		if(!group.getMembers().containsKey(user.getID())) {
+		if(!group.isMember()) {
 			String errorMessage = String.format("User %s is not in the group", user.getID());
 			System.out.println(errorMessage);
 			throw new ChaincodeException(errorMessage);
 		}
 
 		//Check if the user has the device
-		if(!user.hasDevice(deviceID)) {
+		if(!userHasDevice(stub, user.getID(), deviceID)) {
 			String errorMessage = String.format("User %s has no device %s", user.getID(), deviceID);
 			System.out.println(errorMessage);
 			throw new ChaincodeException(errorMessage);
@@ -1277,229 +2011,36 @@ public final class EnergyCertifier implements ContractInterface {
 		GroupState state = getGroupState(ctx, group);
 
 		if (state == GroupState.MONITORING) {
+			Policy policy = getGroupPolicy(ctx, group);
 			LocalTime time = LocalTime.now().withNano(0);
 			Measure measure = new Measure(user.getID(), measureID, time, valuesList, deviceID, groupID, valueNamesList);
 
-			long duration = Duration.between(group.getWarning_reset_timestamp(), time).toMinutes();
-			LocalTime new_resetTimestamp = getNewResetTimestamp(group.getWarning_reset_timestamp(), policy.getReset_Time(), time);
-			if (new_resetTimestamp.isAfter(group.getWarning_reset_timestamp())){
-				group.resetWarnings();
-				group.setWarning_reset_timestamp(new_resetTimestamp);
-				String groupState = gson.toJson(group);
-				stub.putStringState("group"+groupID, groupState);
-			}
-	
-			Map<String, List<String>> user_violations = group.getUsersWarnings(userId);
-
-			List<String> data_monitored = measure.getValueNames();
-
-			if (policy.getPolicyType() == PolicyType.TIME) {
-				
-				List<TimeRule> rules = policy.getTimeRules();
-				Boolean hasViolated = false;
-				for (TimeRule rule : rules){ 
-					if (hasViolated == false){
-
-						String monitoring = rule.getDataMonitored();
-						if (data_monitored.contains(monitoring)){
-							String rule_id = rule.getID();	
-							Integer user_violation = user_violations.get(rule_id).size();
-							String policySamplingInterval = rule.getSampling();
-							Integer tolerance = rule.getTolerance();
-							//Se è la prima misurazione, prende in considerazione il fine timer di voto
-							//Alle misurazioni successive, prende in considerazione l'ultimo timer di misurazione
-							Measure lastMeasure = user.getLastMeasure(monitoring);
-							if (lastMeasure != null) {
-								LocalTime lastTick = lastMeasure.getTimestamp();
-								if(Duration.between(lastTick, time).toSeconds() > Integer.parseInt(policySamplingInterval)) {
-									group.setUsersWarnings(userId, rule_id, measureID);
-									if (((user_violation + 1) >= tolerance) && hasViolated == false){
-										Violation violation = new Violation(measureID, measureID, userId, groupID, deviceID, time, Duration.between(lastTick, time).toSeconds() + "",Duration.between(lastTick, time).toSeconds() + " seconds, instead of " + policySamplingInterval + " seconds");
-										String violationState = gson.toJson(violation);
-										stub.putStringState("violation"+violation.getID(), violationState);
-										hasViolated = true; 
-									}
-								}
-							} else {
-								if(Duration.between(group.getGroup_timestamp(), time).toSeconds() > Integer.parseInt(policySamplingInterval)) {
-									group.setUsersWarnings(userId, rule_id, measureID);
-									if (((user_violation + 1) >= tolerance) && hasViolated == false){
-										Violation violation = new Violation(measureID, measureID, userId, groupID, deviceID, time, Duration.between(group.getGroup_timestamp(), time).toSeconds() + "",Duration.between(group.getGroup_timestamp(), time).toSeconds() + " seconds, instead of " + policySamplingInterval + " seconds");
-										String violationState = gson.toJson(violation);
-										stub.putStringState("violation"+violation.getID(), violationState);
-										hasViolated = true;
-									}
-								}
-							}
+			//The warnings recorded before the current reset window are discarded when read, the group is not rewritten
+			LocalTime warningResetTimestamp = getNewResetTimestamp(group.getWarning_reset_timestamp(), policy.getReset_Time(), time);
+			UserWarnings user_violations = new UserWarnings(unitOfWork(ctx), groupID, userId, warningResetTimestamp);
 
-						}
-					}
-				}
-				
-				if (hasViolated == false){
-					String measureState = gson.toJson(measure);
-					stub.putStringState("measure"+measureID, measureState);
-					for (String data : data_monitored){
-						user.setLastMeasure(data, measure);
-					}
-					String userState = gson.toJson(user);
-					stub.putStringState("user"+userId, userState);
-				}
-			}
-			else if (policy.getPolicyType() == PolicyType.VALUE) {
-				
-				List<ValueRule> rules = policy.getValueRules();
-				Boolean hasViolated = false;
-				Violation violation = new Violation();
-				for (ValueRule rule : rules){ 
-					
-					if (hasViolated == false){
-						
-						String monitoring = rule.getDataMonitored();
-
-						if (data_monitored.contains(monitoring)){
-							
-							String rule_id = rule.getID();	
-							Integer user_violation = user_violations.get(rule_id).size();
-
-							int index = data_monitored.indexOf(monitoring);
-							List<String> values_measured = measure.getValues();
-							Float value_measured = Float.valueOf(values_measured.get(index));
-
-							Float threshold1 = rule.getThreshold1();
-							String operator1 = rule.getOperator1();
-							Float threshold2 = rule.getThreshold2();
-							String operator2 = rule.getOperator2();
-							Integer tolerance = rule.getTolerance();
-
-							
-							if (operator2.equals("") && threshold2.equals(Float.POSITIVE_INFINITY)){
-								String error_message = "Data " + monitoring + "Value " + String.valueOf(value_measured) +" does not respect the limit " + operator1 + " " + threshold1;
-								Pair<Boolean, Violation> results = check_OneOpeatorValueRule(measureID, hasViolated, operator1, threshold1, value_measured, user_violation, tolerance, group, rule_id, userId, error_message, time, deviceID);
-								hasViolated = results.getLeft();
-								violation = results.getRight();
-							}else{
-								String error_message = "Data " + monitoring + "Value " + String.valueOf(value_measured) +"is outside the allowed interval " + operator1 + " " + threshold1 + operator2 + threshold2;
-								Pair<Boolean, Violation> results =  check_Range_ValueRule(measureID, hasViolated,operator1, threshold1, operator2, threshold2, tolerance, user_violation, value_measured, group, rule_id, userId, error_message, time, deviceID);
-								hasViolated = results.getLeft();
-								violation = results.getRight();
-							}
-						}
-					}else{
-						break;
-					}
-				}
-				if (hasViolated == false){
-					String measureState = gson.toJson(measure);
-					stub.putStringState("measure"+measureID, measureState);
-					for (String data : data_monitored){
-						user.setLastMeasure(data, measure);
-					}
-					String userState = gson.toJson(user);
-					stub.putStringState("user"+userId, userState);
-				}else{
-					String violationState = gson.toJson(violation);
-					stub.putStringState("violation"+violation.getID(), violationState);
-				}
-			}
-			else if (group.getPolicy().getPolicyType() == PolicyType.TIMEVALUE) {
-				List<TimeRule> time_rules = policy.getTimeRules();
-				List<ValueRule> value_rules = policy.getValueRules();
-				Boolean hasViolated = false;
-				Violation violation = new Violation();
-				for (ValueRule rule : value_rules){ 
-					if (hasViolated == false){
-						
-						String monitoring = rule.getDataMonitored();
-
-						if (data_monitored.contains(monitoring)){
-							
-							String rule_id = rule.getID();	
-							Integer user_violation = user_violations.get(rule_id).size();
-
-							int index = data_monitored.indexOf(monitoring);
-							List<String> values_measured = measure.getValues();
-							Float value_measured = Float.valueOf(values_measured.get(index));
-
-							Float threshold1 = rule.getThreshold1();
-							String operator1 = rule.getOperator1();
-							Float threshold2 = rule.getThreshold2();
-							String operator2 = rule.getOperator2();
-							Integer tolerance = rule.getTolerance();
-
-							
-							if (operator2.equals("") && threshold2.equals(Float.POSITIVE_INFINITY)){
-								String error_message = "Data " + monitoring + "Value " + String.valueOf(value_measured) +" does not respect the limit " + operator1 + " " + threshold1;
-								Pair<Boolean, Violation> results = check_OneOpeatorValueRule(measureID, hasViolated, operator1, threshold1, value_measured, user_violation, tolerance, group, rule_id, userId, error_message, time, deviceID);
-								hasViolated = results.getLeft();
-								violation = results.getRight();
-							}else{
-								String error_message = "Data " + monitoring + "Value " + String.valueOf(value_measured) +"is outside the allowed interval " + operator1 + " " + threshold1 + operator2 + threshold2;
-								Pair<Boolean, Violation> results =  check_Range_ValueRule(measureID, hasViolated,operator1, threshold1, operator2, threshold2, tolerance, user_violation, value_measured, group, rule_id, userId, error_message, time, deviceID);
-								hasViolated = results.getLeft();
-								violation = results.getRight();
-							}
-						}
-					}
-				}
-				if (hasViolated == true){
-					for (TimeRule rule : time_rules){ 
-						if (hasViolated == false){
-
-							String monitoring = rule.getDataMonitored();
-							if (data_monitored.contains(monitoring)){
-								String rule_id = rule.getID();	
-								Integer user_violation = user_violations.get(rule_id).size();	
-								String policySamplingInterval = rule.getSampling();
-								Integer tolerance = rule.getTolerance();
-								//Se è la prima misurazione, prende in considerazione il fine timer di voto
-								//Alle misurazioni successive, prende in considerazione l'ultimo timer di misurazione
-								Measure lastMeasure = user.getLastMeasure(monitoring);
-								if (lastMeasure != null) {
-									LocalTime lastTick = lastMeasure.getTimestamp();
-									if(Duration.between(lastTick, time).toSeconds() > Integer.parseInt(policySamplingInterval)) {
-										group.setUsersWarnings(userId, rule_id, measureID);
-										if (((user_violation + 1) >= tolerance) && hasViolated == false){
-											violation = new Violation(measureID, measureID, userId, groupID, deviceID, time, Duration.between(lastTick, time).toSeconds() + "",Duration.between(lastTick, time).toSeconds() + " seconds, instead of " + policySamplingInterval + " seconds");
-											//String violationState = gson.toJson(violation);
-											//stub.putStringState("violation"+violation.getID(), violationState);
-											//group.setUsersWarnings(userId, rule_id, 0);
-											hasViolated = true;
-										}
-									}
-								} else {
-									if(Duration.between(group.getGroup_timestamp(), time).toSeconds() > Integer.parseInt(policySamplingInterval)) {
-										group.setUsersWarnings(userId, rule_id, measureID);
-										if (((user_violation + 1) >= tolerance) && hasViolated == false){
-											violation = new Violation(measureID, measureID, userId, groupID, deviceID, time, Duration.between(group.getGroup_timestamp(), time).toSeconds() + "",Duration.between(group.getGroup_timestamp(), time).toSeconds() + " seconds, instead of " + policySamplingInterval + " seconds");
-											//String violationState = gson.toJson(violation);
-											//stub.putStringState("violation"+violation.getID(), violationState);
-											//group.setUsersWarnings(userId, rule_id, 0);
-											hasViolated = true;
-										}
-									}
-								}
-							}
-						}
-					}
-				}
-				if (hasViolated == false){
-					String measureState = gson.toJson(measure);
-					stub.putStringState("measure"+measureID, measureState);
-					for (String data : data_monitored){
-						user.setLastMeasure(data, measure);
-					}
-					String userState = gson.toJson(user);
-					stub.putStringState("user"+userId, userState);
-				}else{
-					String violationState = gson.toJson(violation);
-					stub.putStringState("violation"+violation.getID(), violationState);
-				}
-			} else{
+			if (policy.getPolicyType() == null) {
 				String errorMessage = String.format("The policy type is wrong!");
 				System.out.println(errorMessage);
 				throw new ChaincodeException(errorMessage);
 			}
+
+			Map<String, AggregateState> aggregates = new HashMap<String, AggregateState>();
+			PolicyEvaluator evaluator = PolicyEvaluator.of(policy);
+			Violation violation = evaluateMeasure(stub, group, evaluator, measure, frame, stub.getTxTimestamp().toEpochMilli(), user_violations, new HashMap<String, Long>(), aggregates, true);
+			if (violation == null) {
+				String measureKey = storeMeasure(ctx, group, measure, streams, measureUUID);
+				putLastMeasure(stub, measure, measureKey, evaluator);
+				putAggregateStates(stub, aggregates.values());
+			} else {
+				putViolation(stub, violation);
+			}
+
+			user_violations.putRaisedBy(measureID);
+
+			String verdict = gson.toJson(new Verdict(measureID, digest, violation == null ? null : violation.getID()));
+			stub.putStringState(verdictKey, verdict);
+			return verdict;
 		} else {
 			String errorMessage = String.format("The group is not in monitoring state");
 			System.out.println(errorMessage);
@@ -1530,278 +2071,91 @@ public final class EnergyCertifier implements ContractInterface {
 		ChaincodeStub stub = ctx.getStub();
 		Policy policy = group.getPolicy();
 
-		//Start and end are LocalTime
-		LocalTime startLocalTime = LocalTime.parse(start);
-		LocalTime endLocalTime = LocalTime.parse(end);
+		//Start and end are instants, a time of the day is taken on the day of the transaction
+		long startMillis = parseWindowBound(stub, start);
+		long endMillis = parseWindowBound(stub, end);
+		//An end time of the day before the start crosses midnight
+		if (endMillis <= startMillis && !end.contains("T")) {
+			endMillis += Duration.ofDays(1).toMillis();
+		}
+		if (endMillis <= startMillis) {
+			String errorMessage = String.format("The window %s - %s is empty", start, end);
+			System.out.println(errorMessage);
+			throw new ChaincodeException(errorMessage);
+		}
+		if (endMillis - startMillis > MAX_ARBITER_MILLIS) {
+			String errorMessage = String.format("The window %s - %s is longer than %d hours, check it in shorter windows", start, end, MAX_ARBITER_MILLIS / BUCKET_MILLIS);
+			System.out.println(errorMessage);
+			throw new ChaincodeException(errorMessage);
+		}
 
-		QueryResultsIterator<KeyValue> results = stub.getStateByRange("measure", "measurez");
+		//Only the hour buckets covered by the window are read, in time order
 		List<Measure> measures = new ArrayList<Measure>();
-
-		for (KeyValue result : results) {
-			String measureState = result.getStringValue();
-			Measure measure = gson.fromJson(measureState, Measure.class);
-			if(measure.getGroupID().equals(groupID) && measure.getTimestamp().isAfter(startLocalTime) && measure.getTimestamp().isBefore(endLocalTime)){
-				measures.add(measure);
+		//The transaction time of every measure, from its bucket key
+		List<Long> measuresMillis = new ArrayList<Long>();
+		MeasureStreams streams = new MeasureStreams(stub);
+		for (long bucket = startMillis / BUCKET_MILLIS; bucket <= endMillis / BUCKET_MILLIS; bucket++) {
+			try (LedgerQuery results = new LedgerQuery(stub.getStateByPartialCompositeKey(MEASURE_BUCKET, groupID, bucketKey(bucket * BUCKET_MILLIS)))) {
+				for (KeyValue result : results) {
+					long measureMillis = Long.parseLong(stub.splitCompositeKey(result.getKey()).getAttributes().get(2));
+					if (measureMillis > startMillis && measureMillis < endMillis) {
+						Measure measure = LedgerCodec.decodeMeasure(stub.getState(result.getStringValue()), streams);
+						if (measure != null) {
+							measures.add(measure);
+							measuresMillis.add(measureMillis);
+						}
+					}
+				}
 			}
 		}
-		measures.removeAll(Collections.singleton(null)); //Remove null measures
 		
 		LocalTime now = LocalTime.now().withNano(0);
+		//Last tick of every user and variable while replaying, it starts from the last measure records
+		Map<String, Long> lastTicks = new HashMap<String, Long>();
+		//Aggregate windows of every user while replaying, rebuilt from the replayed measures since the records already count later measures
+		Map<String, AggregateState> aggregates = new HashMap<String, AggregateState>();
+		//Warnings of every user while replaying, they start from the warning records and are not written back
+		Map<String, UserWarnings> replayWarnings = new HashMap<String, UserWarnings>();
+		PolicyEvaluator evaluator = PolicyEvaluator.of(policy);
+		GroupView view = GroupView.of(group, null);
 
 		//Check if there are violations
-		for (Measure measure : measures) {
-			
-
-			List<String> data_monitored = measure.getValueNames();
-			List<Float> valuesListFloat = new ArrayList<Float>();
-			
-			for (String value : measure.getValues()) {
-				valuesListFloat.add(Float.valueOf(value));
-			}
+		for (int m = 0; m < measures.size(); m++) {
+			Measure measure = measures.get(m);
+			MeasureFrame frame = new MeasureFrame(measure);
 
 			LocalTime measure_time = measure.getTimestamp();
-			long duration = Duration.between(group.getWarning_reset_timestamp(), measure_time).toMinutes();
 			LocalTime new_resetTimestamp = getNewResetTimestamp(group.getWarning_reset_timestamp(), policy.getReset_Time(), measure_time);
 			if (new_resetTimestamp.isAfter(group.getWarning_reset_timestamp())){
-				group.resetWarnings();
 				group.setWarning_reset_timestamp(new_resetTimestamp);
-				String groupState = gson.toJson(group);
-				stub.putStringState("group"+groupID, groupState);
+				replayWarnings.clear();
+				unitOfWork(ctx).put("group" + groupID, group);
 			}
 
 			String userId = measure.getUserID();
-			User user = getUser(ctx, userId);
 			String measureID = measure.getID();
 			String deviceID = measure.getIDdevice();
-			Map<String, List<String>> user_violations = group.getUsersWarnings(userId);
+			if (!replayWarnings.containsKey(userId)) {
+				replayWarnings.put(userId, new UserWarnings(unitOfWork(ctx), groupID, userId, group.getWarning_reset_timestamp()));
+			}
+			UserWarnings user_violations = replayWarnings.get(userId);
 
 			GroupState group_state = getGroupState(ctx, group);
 
 			if (group_state == GroupState.MONITORING) {
-				
-
 				if (null == policy.getPolicyType()) {
 					String errorMessage = String.format("Policy type %s is not valid", policy.getPolicyType());
 					System.out.println(errorMessage);
 					throw new ChaincodeException(errorMessage);
 				}
-				else switch (policy.getPolicyType()) {
-					case TIME:
-						{
-							List<TimeRule> rules = policy.getTimeRules();
-							Boolean hasViolated = false;
-
-							for (TimeRule rule : rules){
-
-								if (hasViolated == false){
-
-									String rule_id = rule.getID();
-									Integer user_violation = user_violations.get(rule_id).size();
-
-									String policySamplingInterval = rule.getSampling();
-									Integer tolerance = rule.getTolerance();
-									String monitoring = rule.getDataMonitored();
-
-									if (data_monitored.contains(monitoring)){
-										//Se è la prima misurazione, prende in considerazione il fine timer di voto
-										//Alle misurazioni successive, prende in considerazione l'ultimo timer di misurazione
-										Measure lastMeasure = user.getLastMeasure(monitoring);
-										
-										if (lastMeasure != null) {
-											LocalTime lastTick = lastMeasure.getTimestamp();
-											if(Duration.between(lastTick, measure_time).toSeconds() > Integer.parseInt(policySamplingInterval)) {
-												group.setUsersWarnings(userId, rule_id, measureID);
-												if (((user_violation + 1) >= tolerance) && hasViolated == false){
-													Violation violation = new Violation(measureID, measureID, userId, groupID, deviceID, measure_time, Duration.between(lastTick, measure_time).toSeconds() + "",Duration.between(lastTick, measure_time).toSeconds() + " seconds, instead of " + policySamplingInterval + " seconds");
-													String violationState = gson.toJson(violation);
-													stub.putStringState("violation"+violation.getID(), violationState);
-													//group.setUsersWarnings(userId, rule_id, 0);
-													hasViolated = true;
-												}
-											}
-										} else {
-											if(Duration.between(group.getGroup_timestamp(), measure_time).toSeconds() > Integer.parseInt(policySamplingInterval)) {
-												group.setUsersWarnings(userId, rule_id, measureID);
-												if (((user_violation + 1) >= tolerance) && hasViolated == false){
-													Violation violation = new Violation(measureID, measureID, userId, groupID, deviceID, measure_time, Duration.between(group.getGroup_timestamp(), measure_time).toSeconds() + "",Duration.between(group.getGroup_timestamp(), measure_time).toSeconds() + " seconds, instead of " + policySamplingInterval + " seconds");
-													String violationState = gson.toJson(violation);
-													stub.putStringState("violation"+violation.getID(), violationState);
-													//group.setUsersWarnings(userId, rule_id, 0);
-													hasViolated = true;
-												}
-											}
-										}
-										
-									}
-								}
-								if (hasViolated == false){
-									// String measureState = gson.toJson(measure);
-									// stub.putStringState("measure"+measureID, measureState);
-									for (String data : data_monitored){
-										user.setLastMeasure(data, measure);
-									}
-									String userState = gson.toJson(user);
-									stub.putStringState("user"+userId, userState);
-								}
-							}
-							break;
-						}
-					case VALUE:
-						{
-							List<ValueRule> rules = policy.getValueRules();
-							Boolean hasViolated = false;
-							Violation violation = new Violation();
-							for (ValueRule rule : rules){
-								if (hasViolated == false){
-									
-									String monitoring = rule.getDataMonitored();
-
-								if (data_monitored.contains(monitoring)){
-									
-									String rule_id = rule.getID();	
-									Integer user_violation = user_violations.get(rule_id).size();
-
-									int index = data_monitored.indexOf(monitoring);
-									List<String> values_measured = measure.getValues();
-									Float value_measured = Float.valueOf(values_measured.get(index));
-
-									Float threshold1 = rule.getThreshold1();
-									String operator1 = rule.getOperator1();
-									Float threshold2 = rule.getThreshold2();
-									String operator2 = rule.getOperator2();
-									Integer tolerance = rule.getTolerance();
-
-									
-									if (operator2.equals("") && threshold2.equals(Float.POSITIVE_INFINITY)){
-										String error_message = "Data " + monitoring + "Value " + String.valueOf(value_measured) +" does not respect the limit " + operator1 + " " + threshold1;
-										Pair<Boolean, Violation> results_value = check_OneOpeatorValueRule(measureID, hasViolated, operator1, threshold1, value_measured, user_violation, tolerance, group, rule_id, userId, error_message, measure_time, deviceID);
-										hasViolated = results_value.getLeft();
-										violation = results_value.getRight();
-									}else{
-										String error_message = "Data " + monitoring + "Value " + String.valueOf(value_measured) +"is outside the allowed interval " + operator1 + " " + threshold1 + operator2 + threshold2;
-										Pair<Boolean, Violation> results_value =  check_Range_ValueRule(measureID, hasViolated, operator1, threshold1, operator2, threshold2, tolerance, user_violation, value_measured, group, rule_id, userId, error_message, measure_time, deviceID);
-										hasViolated = results_value.getLeft();
-										violation = results_value.getRight();
-									}
-								}
-							}else{
-								break;
-							}
-						}
-						if (hasViolated == false){
-							//String measureState = gson.toJson(measure);
-							//stub.putStringState("measure"+measureID, measureState);
-							for (String data : data_monitored){
-								user.setLastMeasure(data, measure);
-							}
-							String userState = gson.toJson(user);
-							stub.putStringState("user"+userId, userState);
-						}else{
-							String violationState = gson.toJson(violation);
-							stub.putStringState("violation"+violation.getID(), violationState);
-						};
-						break;
+
+				Violation violation = evaluateMeasure(stub, view, evaluator, measure, frame, measuresMillis.get(m), user_violations, lastTicks, aggregates, false);
+				if (violation == null) {
+					for (String data : measure.getValueNames()){
+						lastTicks.put(userId + "~" + data, measuresMillis.get(m));
 					}
-					case TIMEVALUE:
-						{
-							List<TimeRule> time_rules = policy.getTimeRules();
-							List<ValueRule> value_rules = policy.getValueRules();
-							Boolean hasViolated = false;
-							Violation violation = new Violation();
-							for (ValueRule rule : value_rules){ 
-								if (hasViolated == false){
-									
-									String monitoring = rule.getDataMonitored();
-
-									if (data_monitored.contains(monitoring)){
-										
-										String rule_id = rule.getID();	
-										Integer user_violation = user_violations.get(rule_id).size();
-
-										int index = data_monitored.indexOf(monitoring);
-										List<String> values_measured = measure.getValues();
-										Float value_measured = Float.valueOf(values_measured.get(index));
-
-										Float threshold1 = rule.getThreshold1();
-										String operator1 = rule.getOperator1();
-										Float threshold2 = rule.getThreshold2();
-										String operator2 = rule.getOperator2();
-										Integer tolerance = rule.getTolerance();
-
-										if (operator2.equals("") && threshold2.equals(Float.POSITIVE_INFINITY)){
-											String error_message = "Data " + monitoring + "Value " + String.valueOf(value_measured) +" does not respect the limit " + operator1 + " " + threshold1;
-											Pair<Boolean, Violation> results_value = check_OneOpeatorValueRule(measureID, hasViolated, operator1, threshold1, value_measured, user_violation, tolerance, group, rule_id, userId, error_message, measure_time, deviceID);
-											hasViolated = results_value.getLeft();
-											violation = results_value.getRight();
-										}else{
-											String error_message = "Data " + monitoring + "Value " + String.valueOf(value_measured) +"is outside the allowed interval " + operator1 + " " + threshold1 + operator2 + threshold2;
-											Pair<Boolean, Violation> results_value =  check_Range_ValueRule(measureID, hasViolated,operator1, threshold1, operator2, threshold2, tolerance, user_violation, value_measured, group, rule_id, userId, error_message, measure_time, deviceID);
-											hasViolated = results_value.getLeft();
-											violation = results_value.getRight();
-										}
-									}
-								}
-							}
-							if (hasViolated == true){
-								for (TimeRule rule : time_rules){ 
-									if (hasViolated == false){
-
-										String monitoring = rule.getDataMonitored();
-										if (data_monitored.contains(monitoring)){
-											String rule_id = rule.getID();	
-											Integer user_violation = user_violations.get(rule_id).size();	
-											String policySamplingInterval = rule.getSampling();
-											Integer tolerance = rule.getTolerance();
-											//Se è la prima misurazione, prende in considerazione il fine timer di voto
-											//Alle misurazioni successive, prende in considerazione l'ultimo timer di misurazione
-											Measure lastMeasure = user.getLastMeasure(monitoring);
-											
-											if (lastMeasure != null) {
-												LocalTime lastTick = lastMeasure.getTimestamp();
-												if(Duration.between(lastTick, measure_time).toSeconds() > Integer.parseInt(policySamplingInterval)) {
-													group.setUsersWarnings(userId, rule_id, measureID);
-													if (((user_violation + 1) >= tolerance) && hasViolated == false){
-														violation = new Violation(measureID, measureID, userId, groupID, deviceID, measure_time, Duration.between(lastTick, measure_time).toSeconds() + "",Duration.between(lastTick, measure_time).toSeconds() + " seconds, instead of " + policySamplingInterval + " seconds");
-														//String violationState = gson.toJson(violation);
-														//stub.putStringState("violation"+violation.getID(), violationState);
-														//group.setUsersWarnings(userId, rule_id, 0);
-														hasViolated = true;
-													}
-												}
-											} else {
-												if(Duration.between(group.getGroup_timestamp(), measure_time).toSeconds() > Integer.parseInt(policySamplingInterval)) {
-													group.setUsersWarnings(userId, rule_id,measureID);
-													if (((user_violation + 1) >= tolerance) && hasViolated == false){
-														violation = new Violation(measureID, measureID, userId, groupID, deviceID, measure_time, Duration.between(group.getGroup_timestamp(), measure_time).toSeconds() + "",Duration.between(group.getGroup_timestamp(), measure_time).toSeconds() + " seconds, instead of " + policySamplingInterval + " seconds");
-														//String violationState = gson.toJson(violation);
-														//stub.putStringState("violation"+violation.getID(), violationState);
-														//group.setUsersWarnings(userId, rule_id, 0);
-														hasViolated = true;
-													}
-												}
-											}
-										}
-									}
-								}
-							}
-							if (hasViolated == false){
-								//String measureState = gson.toJson(measure);
-								//stub.putStringState("measure"+measureID, measureState);
-								for (String data : data_monitored){
-									user.setLastMeasure(data, measure);
-								}
-								String userState = gson.toJson(user);
-								stub.putStringState("user"+userId, userState);
-							}else{
-								String violationState = gson.toJson(violation);
-								stub.putStringState("violation"+violation.getID(), violationState);
-							}
-						};
-						break;
-					default:
-						String errorMessage = String.format("Policy type %s is not valid", policy.getPolicyType());
-						System.out.println(errorMessage);
-						throw new ChaincodeException(errorMessage);
+				} else {
+					putViolation(stub, violation);
 				}
 			} else {
 				String errorMessage = String.format("The group is not in monitoring state");
@@ -1826,21 +2180,342 @@ public final class EnergyCertifier implements ContractInterface {
 		LocalTime now = LocalTime.now().withNano(0);
 		long duration = Duration.between(start_time, now).toMinutes();
 
+		//Moving the reset timestamp discards all the warning records of the group
 		if (duration >= resetTimer){
-			group.resetWarnings();
 			group.setWarning_reset_timestamp(now);
-			String groupState = gson.toJson(group);
-			stub.putStringState("group"+groupID, groupState);
+			unitOfWork(ctx).put("group" + groupID, group);
+		}
+
+	}
+
+
+	/**
+	 * Store a measure of a stream under its composite key, ordered by the transaction timestamp.
+	 * The record keeps only the reference to the stream, the user, group, device and value names are read from it
+	 * @param stub the chaincode stub
+	 * @param measure the measure
+	 * @param streams the streams of the transaction
+	 * @param streamID the UUID of the stream of the measure
+	 */
+	private String putMeasure(final ChaincodeStub stub, final Measure measure, final MeasureStreams streams, final String streamID) {
+		List<String> streamNames = streams.register(streamID, measure.getValueNames());
+		return putMeasure(stub, measure, stub.getTxTimestamp().toEpochMilli(), LedgerCodec.encode(measure, streamID, streamNames));
+	}
+
+	private String putMeasure(final ChaincodeStub stub, final Measure measure, final long epochMillis) {
+		return putMeasure(stub, measure, epochMillis, LedgerCodec.encode(measure));
+	}
+
+	private String putMeasure(final ChaincodeStub stub, final Measure measure, final long epochMillis, final byte[] record) {
+		String timeKey = timeKey(epochMillis);
+		String measureKey = stub.createCompositeKey(MEASURE, measure.getGroupID(), measure.getUserID(), measure.getIDdevice(), timeKey, measure.getID()).toString();
+		stub.putState(measureKey, record);
+		stub.putStringState(stub.createCompositeKey(MEASURE_ID, measure.getID()).toString(), measureKey);
+		stub.putStringState(measureBucketKey(stub, measure.getGroupID(), epochMillis, measure.getID()), measureKey);
+		return measureKey;
+	}
+
+	/**
+	 * Store a measure, in a group with a payload collection the public measure keeps only the monitored values and the digest of the payload
+	 * @param ctx the transaction context
+	 * @param group the group of the measure
+	 * @param measure the measure
+	 * @param streams the streams of the transaction
+	 * @param streamID the UUID of the stream of the measure
+	 * @return the ledger key of the measure
+	 */
+	private String storeMeasure(final Context ctx, final GroupView group, final Measure measure, final MeasureStreams streams, final String streamID) {
+		ChaincodeStub stub = ctx.getStub();
+		String collection = group.getPayloadCollection();
+		if (collection == null || collection.isEmpty()) {
+			return putMeasure(stub, measure, streams, streamID);
+		}
+
+		byte[] payload = gson.toJson(measure).getBytes(StandardCharsets.UTF_8);
+		List<String> monitored = getGroupPolicy(ctx, group).getMonitoredVariables();
+		List<String> valueNames = new ArrayList<String>();
+		List<String> values = new ArrayList<String>();
+		for (int i = 0; i < measure.getValueNames().size(); i++) {
+			if (monitored.contains(measure.getValueNames().get(i))) {
+				valueNames.add(measure.getValueNames().get(i));
+				values.add(measure.getValues().get(i));
+			}
+		}
+		Measure publicMeasure = new Measure(measure.getUserID(), measure.getID(), measure.getTimestamp(), values, measure.getIDdevice(), measure.getGroupID(), valueNames);
+		publicMeasure.setPayloadHash(toHex(sha256(payload)));
+
+		String measureKey = putMeasure(stub, publicMeasure, streams, streamID);
+		stub.putPrivateData(collection, measureKey, payload);
+		return measureKey;
+	}
+
+	private static byte[] sha256(final byte[] data) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(data);
+		} catch (NoSuchAlgorithmException e) {
+			throw new ChaincodeException(e.getMessage());
+		}
+	}
+
+	private static String toHex(final byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+
+	private String measureBucketKey(final ChaincodeStub stub, final String groupID, final long epochMillis, final String measureID) {
+		return stub.createCompositeKey(MEASURE_BUCKET, groupID, bucketKey(epochMillis), timeKey(epochMillis), measureID).toString();
+	}
+
+	/**
+	 * Bucket attribute of the measureBucket keys, zero padded like the time attribute
+	 * @param epochMillis the epoch millis of the transaction
+	 * @return the bucket attribute
+	 */
+	private static String bucketKey(final long epochMillis) {
+		return String.format("%013d", epochMillis / BUCKET_MILLIS);
+	}
+
+	/**
+	 * Parse a bound of an arbiter window, an ISO instant or a time of the day of the transaction (UTC)
+	 * @param stub the chaincode stub
+	 * @param bound the bound
+	 * @return the bound in epoch millis
+	 */
+	private long parseWindowBound(final ChaincodeStub stub, final String bound) {
+		try {
+			return Instant.parse(bound).toEpochMilli();
+		} catch (DateTimeParseException e) {
+			LocalDate day = LocalDate.ofInstant(stub.getTxTimestamp(), ZoneOffset.UTC);
+			return day.atTime(LocalTime.parse(bound)).toInstant(ZoneOffset.UTC).toEpochMilli();
+		}
+	}
+
+	/**
+	 * Get the state of an aggregate rule for a user
+	 * @param stub the chaincode stub
+	 * @param groupID the ID of the group
+	 * @param userID the ID of the user
+	 * @param ruleID the ID of the aggregate rule
+	 * @return the state, null if the user has no measure in a window of the rule yet
+	 */
+	private AggregateState getAggregateState(final ChaincodeStub stub, final String groupID, final String userID, final String ruleID) {
+		String aggregateState = stub.getStringState(stub.createCompositeKey(AGGREGATE, groupID, userID, ruleID).toString());
+		if (aggregateState == null || aggregateState.isEmpty()) {
+			return null;
+		}
+		return gson.fromJson(aggregateState, AggregateState.class);
+	}
+
+	/**
+	 * Write the states of the aggregate rules updated by an accepted measure
+	 * @param stub the chaincode stub
+	 * @param states the updated states
+	 */
+	private void putAggregateStates(final ChaincodeStub stub, final Collection<AggregateState> states) {
+		for (AggregateState state : states) {
+			String aggregateKey = stub.createCompositeKey(AGGREGATE, state.getGroupID(), state.getUserID(), state.getRuleID()).toString();
+			stub.putStringState(aggregateKey, gson.toJson(state));
+		}
+	}
+
+	private boolean userHasDevice(final ChaincodeStub stub, final String userID, final String deviceID) {
+		String deviceState = stub.getStringState(stub.createCompositeKey(USER_DEVICE, userID, deviceID).toString());
+		return (deviceState != null && !deviceState.isEmpty());
+	}
+
+	private boolean userHasPolicy(final ChaincodeStub stub, final String userID, final String policyID) {
+		String policyState = stub.getStringState(stub.createCompositeKey(USER_POLICY, userID, policyID).toString());
+		return (policyState != null && !policyState.isEmpty());
+	}
+
+	/**
+	 * Last tick of a variable of a user while the arbiter replays the measures
+	 * @param stub the chaincode stub
+	 * @param lastTicks the ticks of the measures already replayed
+	 * @param groupID the ID of the group
+	 * @param userID the ID of the user
+	 * @param variable the monitored variable
+	 * @return the epoch millis of the transaction of the last tick, null if the user has not sent the variable yet
+	 */
+	private Long replayLastTick(final ChaincodeStub stub, final Map<String, Long> lastTicks, final String groupID, final String userID, final String variable) {
+		String tickKey = userID + "~" + variable;
+		if (!lastTicks.containsKey(tickKey)) {
+			LastMeasure lastMeasure = getLastMeasurePointer(stub, groupID, userID, variable);
+			lastTicks.put(tickKey, lastMeasure == null ? null : lastMeasure.getTxTime());
 		}
+		return lastTicks.get(tickKey);
+	}
+
+	/**
+	 * Time attribute of the composite keys, zero padded so that the lexical order of the keys is the time order
+	 * @param epochMillis the epoch millis of the transaction
+	 * @return the time attribute
+	 */
+	private static String timeKey(final long epochMillis) {
+		return String.format("%019d", epochMillis);
+	}
 
+	/**
+	 * Store a violation and its group, user and measure index entries. A violation stored again, by arbiter over the same window,
+	 * keeps the time attribute of its first index entries so it is listed once
+	 * @param stub the chaincode stub
+	 * @param violation the violation
+	 */
+	private void putViolation(final ChaincodeStub stub, final Violation violation) {
+		Violation stored = LedgerCodec.decodeViolation(stub.getState("violation"+violation.getID()));
+		List<String> timeKeys = stored == null ? new ArrayList<String>() : violationTimeKeys(stub, stored);
+		//The entries of the stored violation go, its group, user or device may differ from the new one
+		for (String timeKey : timeKeys) {
+			delViolationIndexes(stub, stored, timeKey);
+		}
+
+		stub.putState("violation"+violation.getID(), LedgerCodec.encode(violation));
+		if (!timeKeys.isEmpty()) {
+			putViolationIndexes(stub, violation, timeKeys.get(0));
+		} else if (isMissedSample(violation)) {
+			putViolationIndexes(stub, violation, stub.splitCompositeKey(violation.getMeasureID()).getAttributes().get(1));
+		} else {
+			putViolationIndexes(stub, violation, timeKey(stub.getTxTimestamp().toEpochMilli()));
+		}
+	}
+
+	/**
+	 * Whether a violation is a missed sample raised by sweepDeadlines. Its measure reference is the deadline key,
+	 * which no measure ID can be since measure IDs are composite key attributes
+	 * @param violation the violation
+	 * @return true if the violation refers to a deadline instead of a measure
+	 */
+	private boolean isMissedSample(final Violation violation) {
+		return violation.getMeasureID().startsWith(CompositeKey.NAMESPACE);
+	}
+
+	/**
+	 * The time attributes of the index entries of a violation, read from its measure index. A missed sample is indexed at its deadline
+	 * @param stub the chaincode stub
+	 * @param violation the violation
+	 * @return the time attributes, empty if the violation is not indexed
+	 */
+	private List<String> violationTimeKeys(final ChaincodeStub stub, final Violation violation) {
+		List<String> timeKeys = new ArrayList<String>();
+		if (isMissedSample(violation)) {
+			String timeKey = stub.splitCompositeKey(violation.getMeasureID()).getAttributes().get(1);
+			String indexState = stub.getStringState(stub.createCompositeKey(VIOLATION_BY_GROUP, violation.getGroupID(), timeKey, violation.getID()).toString());
+			if (indexState != null && !indexState.isEmpty()) {
+				timeKeys.add(timeKey);
+			}
+			return timeKeys;
+		}
+		try (LedgerQuery results = new LedgerQuery(stub.getStateByPartialCompositeKey(VIOLATION_BY_MEASURE, violation.getMeasureID()))) {
+			for (KeyValue result : results) {
+				List<String> attributes = stub.splitCompositeKey(result.getKey()).getAttributes();
+				if (attributes.get(2).equals(violation.getID())) {
+					timeKeys.add(attributes.get(1));
+				}
+			}
+		}
+		return timeKeys;
+	}
+
+	private void putViolationIndexes(final ChaincodeStub stub, final Violation violation, final String timeKey) {
+		for (CompositeKey indexKey : violationIndexKeys(stub, violation, timeKey)) {
+			stub.putStringState(indexKey.toString(), INDEX_VALUE);
+		}
+	}
+
+	/**
+	 * Remove a violation and all its index entries, also the ones left by a violation indexed more than once
+	 * @param stub the chaincode stub
+	 * @param violation the violation
+	 */
+	private void delViolation(final ChaincodeStub stub, final Violation violation) {
+		for (String timeKey : violationTimeKeys(stub, violation)) {
+			delViolationIndexes(stub, violation, timeKey);
+		}
+		stub.delState("violation"+violation.getID());
+	}
+
+	private void delViolationIndexes(final ChaincodeStub stub, final Violation violation, final String timeKey) {
+		for (CompositeKey indexKey : violationIndexKeys(stub, violation, timeKey)) {
+			stub.delState(indexKey.toString());
+		}
+	}
+
+	private List<CompositeKey> violationIndexKeys(final ChaincodeStub stub, final Violation violation, final String timeKey) {
+		List<CompositeKey> indexKeys = new ArrayList<CompositeKey>();
+		indexKeys.add(stub.createCompositeKey(VIOLATION_BY_GROUP, violation.getGroupID(), timeKey, violation.getID()));
+		indexKeys.add(stub.createCompositeKey(VIOLATION_BY_USER, violation.getGroupID(), violation.getUserID(), violation.getdeviceID(), timeKey, violation.getID()));
+		//A missed sample has no measure, hasViolation and the verdicts of the last measure do not see it
+		if (!isMissedSample(violation)) {
+			indexKeys.add(stub.createCompositeKey(VIOLATION_BY_MEASURE, violation.getMeasureID(), timeKey, violation.getID()));
+		}
+		return indexKeys;
+	}
+
+	/**
+	 * Read the violation an index entry points to, the violation ID is the last attribute of every index
+	 * @param stub the chaincode stub
+	 * @param indexKey the key of the index entry
+	 * @return the violation, null if it was removed
+	 */
+	private Violation getIndexedViolation(final ChaincodeStub stub, final String indexKey) {
+		List<String> attributes = stub.splitCompositeKey(indexKey).getAttributes();
+		return LedgerCodec.decodeViolation(stub.getState("violation"+attributes.get(attributes.size() - 1)));
+	}
+
+	/**
+	 * Point the last measure record of every variable in the measure to it and move the next sample deadline of the variables monitored by a time rule.
+	 * Devices of one user that send different variables do not conflict, devices that send the same variable write the same records
+	 * @param stub the chaincode stub
+	 * @param measure the measure
+	 * @param measureKey the ledger key of the measure
+	 * @param evaluator the compiled policy of the group
+	 */
+	private void putLastMeasure(final ChaincodeStub stub, final Measure measure, final String measureKey, final PolicyEvaluator evaluator) {
+		long txTime = stub.getTxTimestamp().toEpochMilli();
+		for (String variable : measure.getValueNames()) {
+			long sampling = evaluator.samplingSecondsOf(variable);
+			LastMeasure lastMeasure = new LastMeasure(measure.getID(), measureKey, measure.getTimestamp(), txTime, measure.getIDdevice(), sampling == 0 ? 0 : txTime + sampling * 1000);
+			LastMeasure previous = getLastMeasurePointer(stub, measure.getGroupID(), measure.getUserID(), variable);
+			if (previous != null && previous.getDeadline() != 0) {
+				stub.delState(deadlineKey(stub, measure.getGroupID(), previous.getDeadline(), measure.getUserID(), variable));
+			}
+			if (lastMeasure.getDeadline() != 0) {
+				stub.putStringState(deadlineKey(stub, measure.getGroupID(), lastMeasure.getDeadline(), measure.getUserID(), variable), INDEX_VALUE);
+			}
+			stub.putStringState(stub.createCompositeKey(LAST_MEASURE, measure.getGroupID(), measure.getUserID(), variable).toString(), gson.toJson(lastMeasure));
+		}
+	}
+
+	private String deadlineKey(final ChaincodeStub stub, final String groupID, final long deadline, final String userID, final String variable) {
+		return stub.createCompositeKey(DEADLINE, groupID, timeKey(deadline), userID, variable).toString();
+	}
+
+	/**
+	 * Get the last measure record of a variable of a user in a group
+	 * @param stub the chaincode stub
+	 * @param groupID the ID of the group
+	 * @param userID the ID of the user
+	 * @param variable the monitored variable
+	 * @return the last measure record, null if the user has not sent the variable yet
+	 */
+	private LastMeasure getLastMeasurePointer(final ChaincodeStub stub, final String groupID, final String userID, final String variable) {
+		String lastMeasureState = stub.getStringState(stub.createCompositeKey(LAST_MEASURE, groupID, userID, variable).toString());
+		if (lastMeasureState == null || lastMeasureState.isEmpty()) {
+			return null;
+		}
+		return gson.fromJson(lastMeasureState, LastMeasure.class);
 	}
 
 
 	private LocalTime getNewResetTimestamp(final LocalTime reset_timestamp, final long resetTimer, final LocalTime measure_time){
 		long m_old_duration = Duration.between(reset_timestamp, measure_time).toMinutes();
-		if (m_old_duration > resetTimer){
+		//The window start depends only on the measure time, every transaction in the same window gets the same one
+		if (resetTimer > 0 && m_old_duration >= resetTimer){
 
-			long time_ticks = m_old_duration % resetTimer;
+			long time_ticks = m_old_duration / resetTimer;
 			LocalTime potential_new = reset_timestamp.plusMinutes(time_ticks * resetTimer);
 			return potential_new;
 			
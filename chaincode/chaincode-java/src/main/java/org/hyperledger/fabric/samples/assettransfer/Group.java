@@ -4,9 +4,9 @@ import java.util.Objects;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.time.LocalTime;
 import java.util.ArrayList;
-import java.util.Set;
 
 import org.hyperledger.fabric.contract.annotation.DataType;
 import org.hyperledger.fabric.contract.annotation.Property;
@@ -38,15 +38,12 @@ public class Group {
     @Property()
     private final List<String> joining_requests;  
 
-    @Property()
-    private Map<Policy, Integer> proposed_policies; // proposed_policies (and votes)
-
     @Property()
     private LocalTime group_timestamp; // il timestamp da quando il gruppo è attivo/inizia la fase di proposal proposal_started
     //non è così in realtà perchè questo timestamp è modificato nel tempo 
 
     @Property()
-    private LocalTime warning_reset_timestamp; 
+    private LocalTime warning_reset_timestamp; // i warning degli utenti sono chiavi separate (warning~groupID~userID~ruleID), valgono solo se registrati con questo timestamp
 
     @Property()
     private GroupState state; // lo stato del gruppo 
@@ -58,9 +55,7 @@ public class Group {
     private final Integer voting_duration; // la durata della fase di voting 
 
     @Property()
-    private Map<String, Map<String, List<String>>> warnings;   // le violazioni sono <ID_Utente, <ID_Regola, Numero Violazioni alla regola>>  
-                                                          // potrebbe essere <ID_Utente, <ID_Regola, List<ID_misurazioni>>>  
-                                                          // le lista sarà ordinata, quindi è facile poi controllare se ci sono misurazioni "violanti" troppo vecchie e possibilmente eliminabili
+    private String payloadCollection; // se non null il payload delle misure va in questa private data collection, in chiaro restano hash e valori monitorati
 
 
     public Group(
@@ -80,10 +75,8 @@ public class Group {
 
         this.policy = new Policy();
 
-        this.warnings = new HashMap<>();
         this.members = new HashMap<String, Role>();
         this.joining_requests = new ArrayList<String>();
-        this.proposed_policies =  new HashMap<Policy, Integer>();  
 
     }
 
@@ -115,10 +108,6 @@ public class Group {
         return joining_requests;
     }
 
-    public Map<Policy, Integer> getProposed_policies() {
-        return proposed_policies;
-    }
-
     public LocalTime getGroup_timestamp() {
         return group_timestamp;
     }
@@ -139,53 +128,16 @@ public class Group {
         return warning_reset_timestamp;
     }
 
-    public Map<String, Map<String, List<String>>> getWarnings() {
-        return warnings;
+    public String getPayloadCollection() {
+        return payloadCollection;
     }
 
-
-    // Method to get the integer value for a given string
-
-    public Map<String, List<String>> getUsersWarnings(String userID) {
-        if (warnings.containsKey(userID)) {
-            return warnings.get(userID);
-        } else {
-            throw new IllegalArgumentException("Key not found: " + userID);
-        }
-    }
-
-    // Method to get the integer value for a given string
-    public void setUsersWarnings(String userID, String rule, String measureID) {
-        if (warnings.containsKey(userID)) {
-            if (warnings.get(userID).containsKey(rule)){
-                List <String> rule_warning = warnings.get(userID).get(rule);
-                rule_warning.add(measureID);
-                warnings.get(userID).put(rule, rule_warning);
-            }
-            else{
-                throw new IllegalArgumentException("Rule not found: " + rule + " in user " + userID);
-            }
-        } else {
-            throw new IllegalArgumentException("Key not found: " + userID);
-        }
-    }
-
-    //resetWarnings
-    public void resetWarnings(){
-        List<String> id_rules = this.getPolicy().getRulesIDs();
-        Map<String, Role> users = this.getMembers();
-
-        for(String userID: users.keySet()){
-            for (String ruleID: id_rules) {
-                warnings.get(userID).put(ruleID, new ArrayList<String>()); 
-            }
-        }
+    public void setPayloadCollection(String payloadCollection) {
+        this.payloadCollection = payloadCollection;
     }
 
-
     public void addUser(String user, Role role) {
         members.put(user, role);
-        warnings.put(user, new HashMap<String, List<String>>());
     }
 
     
@@ -226,56 +178,33 @@ public class Group {
     }
 
 
-    //si potrebbe fare un controllo e vedere se esiste già una policy uguale a quella proposta e deve restituire "POLICY GIA' PROPOSTA"
-
-    public void addProposals(List<Policy> policies) {
-        for (Policy policy : policies) {
-           this.addProposal(policy);
-        }
-    }
-
-    public void addProposal(Policy policy) {
-        Set<Policy> policies = getProposed_policies().keySet();
-        for (Policy p : policies){
-            if (p.getID().equals(policy.getID())){
-                throw new IllegalArgumentException("The policy ID was already assigned!");
-            }
-            if (p.hashCode() == policy.hashCode()) {
-                if (p.equals(policy)) {
-                    throw new IllegalArgumentException("The policy already exists!");
-                } 
-            } 
-        }
-        if(!proposed_policies.containsKey(policy)){
-            proposed_policies.put(policy, 0);
-            System.out.println("Policy " + policy.getID() + " added to the vote");
-        }
-    }
-
-    public String endPolicyVote() {
+    // le policy proposte (proposal~groupID~digest) e le schede (ballot~groupID~userID) sono record separati
+    // votes è il conteggio delle schede per digest, letto con una sola scansione alla chiusura del voto
+    public String endPolicyVote(Map<String, Integer> votes) {
         this.voteEnded = true;
-        String mostVotedPolicyId = null;
+        String mostVotedDigest = null;
         int maxVotes = 0;
 
-        for (Map.Entry<Policy, Integer> entry : proposed_policies.entrySet()) {
+        for (Map.Entry<String, Integer> entry : new TreeMap<String, Integer>(votes).entrySet()) {
             if (entry.getValue() > maxVotes) {
-                mostVotedPolicyId = entry.getKey().getID();
+                mostVotedDigest = entry.getKey();
                 maxVotes = entry.getValue();
             }
         }
 
-        //proposed_policies.clear();
         LocalTime time = LocalTime.now();
         this.group_timestamp = time.withNano(0);
 
-        return mostVotedPolicyId;
-
+        return mostVotedDigest;
     }
 
     //Reset Measurements, Violations and Timer
+    // il gruppo esce dal monitoraggio finché non si vota di nuovo una policy, così purgeGroup non corre con le misure nuove
     public void resetMVT() { 
         LocalTime time = LocalTime.now();
         this.group_timestamp = time.withNano(0);
+        this.voteEnded = false;
+        this.state = GroupState.NEW;
     }
 
     @Override
@@ -287,13 +216,13 @@ public class Group {
             return false;
         }
         Group other = (Group) obj;
-        return Objects.deepEquals(new Object[] {getID(), getName(), getLocation(), getPolicy(), getVoteEnded(), getMembers(), getJoining_requests(), getProposed_policies(), getGroup_timestamp(), getState(), getProposal_duration(), getVoting_duration(), getWarnings(), getWarning_reset_timestamp()},
-        new Object[] {other.getID(), other.getName(), other.getLocation(), other.getPolicy(), other.getVoteEnded(), other.getMembers(), other.getJoining_requests(), other.getProposed_policies(), other.getGroup_timestamp(), other.getState(), other.getProposal_duration(), other.getVoting_duration(), other.getWarnings(), this.getWarning_reset_timestamp()});
+        return Objects.deepEquals(new Object[] {getID(), getName(), getLocation(), getPolicy(), getVoteEnded(), getMembers(), getJoining_requests(), getGroup_timestamp(), getState(), getProposal_duration(), getVoting_duration(), getWarning_reset_timestamp()},
+        new Object[] {other.getID(), other.getName(), other.getLocation(), other.getPolicy(), other.getVoteEnded(), other.getMembers(), other.getJoining_requests(), other.getGroup_timestamp(), other.getState(), other.getProposal_duration(), other.getVoting_duration(), this.getWarning_reset_timestamp()});
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(getID(), getName(), getLocation(), getPolicy(), getVoteEnded(), getMembers(), getJoining_requests(), getProposed_policies(), getGroup_timestamp(), getState(), getProposal_duration(), getVoting_duration(), getWarnings(), getWarning_reset_timestamp());
+        return Objects.hash(getID(), getName(), getLocation(), getPolicy(), getVoteEnded(), getMembers(), getJoining_requests(), getGroup_timestamp(), getState(), getProposal_duration(), getVoting_duration(), getWarning_reset_timestamp());
     }
 
     @Override
@@ -307,12 +236,10 @@ public class Group {
         sb.append(", voteEnded=").append(voteEnded);
         sb.append(", members=").append(members);
         sb.append(", joining_requests=").append(joining_requests);
-        sb.append(", proposed_policies=").append(proposed_policies);
         sb.append(", group_timestamp=").append(group_timestamp);
         sb.append(", state=").append(state);
         sb.append(", proposal_duration=").append(proposal_duration);
         sb.append(", voting_duration=").append(voting_duration);
-        sb.append(", warnings=").append(warnings);
         sb.append(", warning_reset_timestamp=").append(warning_reset_timestamp);
         sb.append('}');
         return sb.toString();
@@ -0,0 +1,195 @@
+package org.hyperledger.fabric.samples.assettransfer;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.LocalTime;
+
+import org.hyperledger.fabric.shim.ChaincodeException;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+
+public final class GroupView {
+    // una vista parziale di un gruppo, letta in streaming dal JSON salvato: solo i campi dei controlli frequenti
+    // dei membri si tiene solo il ruolo dell'utente richiesto, la policy si legge solo se serve, il resto viene saltato
+
+    private String ID;
+
+    private GroupState state;
+
+    private Boolean voteEnded;
+
+    private LocalTime group_timestamp;
+
+    private LocalTime warning_reset_timestamp;
+
+    private Integer proposal_duration;
+
+    private Integer voting_duration;
+
+    private String payloadCollection;
+
+    private Policy policy; // null se non richiesta
+
+    private String policyID;
+
+    private final String memberID;
+
+    private Role memberRole; // null se memberID non è nel gruppo
+
+    private GroupView(final String memberID) {
+        this.memberID = memberID;
+    }
+
+    public static GroupView of(final Group group, final String memberID) {
+        GroupView view = new GroupView(memberID);
+        view.refresh(group);
+        return view;
+    }
+
+    public static GroupView read(final Gson gson, final String json, final String memberID, final boolean withPolicy) {
+        GroupView view = new GroupView(memberID);
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "ID":
+                        view.ID = reader.nextString();
+                        break;
+                    case "state":
+                        view.state = gson.fromJson(reader, GroupState.class);
+                        break;
+                    case "voteEnded":
+                        view.voteEnded = gson.fromJson(reader, Boolean.class);
+                        break;
+                    case "group_timestamp":
+                        view.group_timestamp = gson.fromJson(reader, LocalTime.class);
+                        break;
+                    case "warning_reset_timestamp":
+                        view.warning_reset_timestamp = gson.fromJson(reader, LocalTime.class);
+                        break;
+                    case "proposal_duration":
+                        view.proposal_duration = gson.fromJson(reader, Integer.class);
+                        break;
+                    case "voting_duration":
+                        view.voting_duration = gson.fromJson(reader, Integer.class);
+                        break;
+                    case "payloadCollection":
+                        view.payloadCollection = gson.fromJson(reader, String.class);
+                        break;
+                    case "policy":
+                        if (withPolicy) {
+                            view.policy = gson.fromJson(reader, Policy.class);
+                            view.policyID = view.policy == null ? null : view.policy.getID();
+                        } else {
+                            view.policyID = readPolicyID(reader);
+                        }
+                        break;
+                    case "members":
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (reader.nextName().equals(memberID)) {
+                                view.memberRole = gson.fromJson(reader, Role.class);
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+        } catch (IOException | IllegalStateException e) {
+            throw new ChaincodeException("Cannot read group: " + e.getMessage());
+        }
+        return view;
+    }
+
+    // della policy si legge solo l'ID, le regole vengono saltate
+    private static String readPolicyID(final JsonReader reader) throws IOException {
+        String ID = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("ID")) {
+                ID = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return ID;
+    }
+
+    // la policy del gruppo letta a parte, dal suo record
+    void usePolicy(final Policy policy) {
+        this.policy = policy;
+        this.policyID = policy.getID();
+    }
+
+    // riallinea la vista a un gruppo letto per intero, ad esempio dopo la chiusura del voto
+    void refresh(final Group group) {
+        this.ID = group.getID();
+        this.state = group.getState();
+        this.voteEnded = group.getVoteEnded();
+        this.group_timestamp = group.getGroup_timestamp();
+        this.warning_reset_timestamp = group.getWarning_reset_timestamp();
+        this.proposal_duration = group.getProposal_duration();
+        this.voting_duration = group.getVoting_duration();
+        this.payloadCollection = group.getPayloadCollection();
+        this.policy = group.getPolicy();
+        this.policyID = policy == null ? null : policy.getID();
+        this.memberRole = memberID == null ? null : group.getMembers().get(memberID);
+    }
+
+    public String getID() {
+        return ID;
+    }
+
+    public GroupState getState() {
+        return state;
+    }
+
+    public Boolean getVoteEnded() {
+        return voteEnded;
+    }
+
+    public LocalTime getGroup_timestamp() {
+        return group_timestamp;
+    }
+
+    public LocalTime getWarning_reset_timestamp() {
+        return warning_reset_timestamp;
+    }
+
+    public Integer getProposal_duration() {
+        return proposal_duration;
+    }
+
+    public Integer getVoting_duration() {
+        return voting_duration;
+    }
+
+    public String getPayloadCollection() {
+        return payloadCollection;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public String getPolicyID() {
+        return policyID;
+    }
+
+    public boolean isMember() {
+        return memberRole != null;
+    }
+
+    public Role getMemberRole() {
+        return memberRole;
+    }
+
+}
@@ -0,0 +1,72 @@
+package org.hyperledger.fabric.samples.assettransfer;
+
+import java.time.LocalTime;
+
+import org.hyperledger.fabric.contract.annotation.DataType;
+import org.hyperledger.fabric.contract.annotation.Property;
+
+import com.owlike.genson.annotation.JsonProperty;
+
+@DataType()
+public class LastMeasure {
+    // puntatore all'ultima misura di una variabile di un utente in un gruppo
+
+    @Property()
+    private final String measureID;
+
+    @Property()
+    private final String measureKey; // chiave composita della misura
+
+    @Property()
+    private final LocalTime timestamp;
+
+    @Property()
+    private final long txTime; // epoch millis della transazione che ha scritto la misura
+
+    @Property()
+    private final String deviceID;
+
+    @Property()
+    private final long deadline; // epoch millis entro cui è attesa la prossima misura, 0 se nessuna regola di tempo monitora la variabile
+
+    public LastMeasure(@JsonProperty("measureID") final String measureID, @JsonProperty("measureKey") final String measureKey,
+    @JsonProperty("timestamp") final LocalTime timestamp, @JsonProperty("txTime") final long txTime,
+    @JsonProperty("deviceID") final String deviceID, @JsonProperty("deadline") final long deadline) {
+        this.measureID = measureID;
+        this.measureKey = measureKey;
+        this.timestamp = timestamp;
+        this.txTime = txTime;
+        this.deviceID = deviceID;
+        this.deadline = deadline;
+    }
+
+    public String getMeasureID() {
+        return measureID;
+    }
+
+    public String getMeasureKey() {
+        return measureKey;
+    }
+
+    public LocalTime getTimestamp() {
+        return timestamp;
+    }
+
+    public long getTxTime() {
+        return txTime;
+    }
+
+    public String getDeviceID() {
+        return deviceID;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    // lo stesso puntatore con la scadenza spostata
+    public LastMeasure withDeadline(final long deadline) {
+        return new LastMeasure(measureID, measureKey, timestamp, txTime, deviceID, deadline);
+    }
+
+}
@@ -0,0 +1,274 @@
+package org.hyperledger.fabric.samples.assettransfer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.hyperledger.fabric.shim.ChaincodeException;
+
+import com.google.gson.Gson;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+public final class LedgerCodec {
+    // formato binario compatto per misure e violazioni sul ledger, scritto con il runtime protobuf già incluso nello shim
+    // il primo byte è la versione del formato; i valori JSON scritti prima iniziano con '{' e si leggono ancora con Gson
+    // le stringhe e gli orari possono essere null: si scrive la lunghezza + 1, 0 vuol dire null
+    // nella versione 2 una misura tiene solo il riferimento al suo stream (l'UUID del token in 16 byte), l'ID, l'ora e i valori;
+    // i nomi dei valori si scrivono solo se sono diversi da quelli dello stream
+
+    private static final byte VERSION_1 = 1;
+    private static final byte VERSION_2 = 2;
+
+    // al posto del numero di nomi + 1: la misura ha i nomi dello stream
+    private static final int STREAM_NAMES = 0;
+
+    // un valore della misura che torna identico da Float.toString si scrive come float a 4 byte, gli altri come stringa
+    private static final int VALUE_FLOAT = 0;
+    private static final int VALUE_STRING = 1;
+
+    private static final Gson gson = new Gson();
+
+    private LedgerCodec() {
+    }
+
+    public static boolean isBinary(final byte[] value) {
+        return value != null && value.length > 0 && (value[0] == VERSION_1 || value[0] == VERSION_2);
+    }
+
+    public static byte[] encode(final Measure measure) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 16 * measure.getValues().size());
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        try {
+            out.writeRawByte(VERSION_1);
+            writeString(out, measure.getID());
+            writeString(out, measure.getUserID());
+            writeString(out, measure.getIDdevice());
+            writeString(out, measure.getGroupID());
+            writeTime(out, measure.getTimestamp());
+            writeString(out, measure.getPayloadHash());
+            List<String> valueNames = measure.getValueNames();
+            List<String> values = measure.getValues();
+            out.writeUInt32NoTag(values.size());
+            for (int i = 0; i < values.size(); i++) {
+                writeString(out, valueNames.get(i));
+                writeValue(out, values.get(i));
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new ChaincodeException("Cannot encode measure " + measure.getID() + ": " + e.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    // la misura di uno stream, che ha già i nomi streamNames (null se non ne ha)
+    public static byte[] encode(final Measure measure, final String streamID, final List<String> streamNames) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(48 + 8 * measure.getValues().size());
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        try {
+            out.writeRawByte(VERSION_2);
+            UUID stream = UUID.fromString(streamID);
+            out.writeFixed64NoTag(stream.getMostSignificantBits());
+            out.writeFixed64NoTag(stream.getLeastSignificantBits());
+            writeString(out, measure.getID());
+            writeTime(out, measure.getTimestamp());
+            writeString(out, measure.getPayloadHash());
+            List<String> valueNames = measure.getValueNames();
+            if (valueNames.equals(streamNames)) {
+                out.writeUInt32NoTag(STREAM_NAMES);
+            } else {
+                out.writeUInt32NoTag(valueNames.size() + 1);
+                for (String name : valueNames) {
+                    writeString(out, name);
+                }
+            }
+            List<String> values = measure.getValues();
+            out.writeUInt32NoTag(values.size());
+            for (String value : values) {
+                writeValue(out, value);
+            }
+            out.flush();
+        } catch (IOException | IllegalArgumentException e) {
+            throw new ChaincodeException("Cannot encode measure " + measure.getID() + ": " + e.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    public static Measure decodeMeasure(final byte[] value, final MeasureStreams streams) {
+        if (value == null || value.length == 0) {
+            return null;
+        }
+        if (!isBinary(value)) {
+            return gson.fromJson(new String(value, StandardCharsets.UTF_8), Measure.class);
+        }
+        if (value[0] == VERSION_2) {
+            return decodeStreamMeasure(value, streams);
+        }
+        CodedInputStream in = CodedInputStream.newInstance(value, 1, value.length - 1);
+        try {
+            String ID = readString(in);
+            String userID = readString(in);
+            String IDdevice = readString(in);
+            String groupID = readString(in);
+            LocalTime timestamp = readTime(in);
+            String payloadHash = readString(in);
+            int size = in.readUInt32();
+            List<String> valueNames = new ArrayList<String>(size);
+            List<String> values = new ArrayList<String>(size);
+            for (int i = 0; i < size; i++) {
+                valueNames.add(readString(in));
+                values.add(readValue(in));
+            }
+            Measure measure = new Measure(userID, ID, timestamp, values, IDdevice, groupID, valueNames);
+            measure.setPayloadHash(payloadHash);
+            return measure;
+        } catch (IOException e) {
+            throw new ChaincodeException("Cannot decode measure: " + e.getMessage());
+        }
+    }
+
+    private static Measure decodeStreamMeasure(final byte[] value, final MeasureStreams streams) {
+        CodedInputStream in = CodedInputStream.newInstance(value, 1, value.length - 1);
+        try {
+            String streamID = new UUID(in.readFixed64(), in.readFixed64()).toString();
+            String ID = readString(in);
+            LocalTime timestamp = readTime(in);
+            String payloadHash = readString(in);
+            int names = in.readUInt32();
+            List<String> valueNames;
+            if (names == STREAM_NAMES) {
+                valueNames = streams.valueNames(streamID);
+                if (valueNames == null) {
+                    throw new ChaincodeException("Cannot decode measure: stream " + streamID + " has no value names");
+                }
+            } else {
+                valueNames = new ArrayList<String>(names - 1);
+                for (int i = 0; i < names - 1; i++) {
+                    valueNames.add(readString(in));
+                }
+            }
+            int size = in.readUInt32();
+            List<String> values = new ArrayList<String>(size);
+            for (int i = 0; i < size; i++) {
+                values.add(readValue(in));
+            }
+            IDToken token = streams.token(streamID);
+            Measure measure = new Measure(token.getUserid(), ID, timestamp, values, token.getDeviceid(), token.getGroupid(), valueNames);
+            measure.setPayloadHash(payloadHash);
+            return measure;
+        } catch (IOException e) {
+            throw new ChaincodeException("Cannot decode measure: " + e.getMessage());
+        }
+    }
+
+    public static byte[] encode(final Violation violation) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        try {
+            out.writeRawByte(VERSION_1);
+            writeString(out, violation.getID());
+            writeString(out, violation.getMeasureID());
+            writeString(out, violation.getUserID());
+            writeString(out, violation.getGroupID());
+            writeString(out, violation.getdeviceID());
+            writeTime(out, violation.getTimestamp());
+            writeString(out, violation.getValue());
+            writeString(out, violation.getType());
+            out.flush();
+        } catch (IOException e) {
+            throw new ChaincodeException("Cannot encode violation " + violation.getID() + ": " + e.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    public static Violation decodeViolation(final byte[] value) {
+        if (value == null || value.length == 0) {
+            return null;
+        }
+        if (!isBinary(value)) {
+            return gson.fromJson(new String(value, StandardCharsets.UTF_8), Violation.class);
+        }
+        CodedInputStream in = CodedInputStream.newInstance(value, 1, value.length - 1);
+        try {
+            String ID = readString(in);
+            String measureID = readString(in);
+            String userID = readString(in);
+            String groupID = readString(in);
+            String deviceID = readString(in);
+            LocalTime timestamp = readTime(in);
+            String violationValue = readString(in);
+            String type = readString(in);
+            return new Violation(ID, measureID, userID, groupID, deviceID, timestamp, violationValue, type);
+        } catch (IOException e) {
+            throw new ChaincodeException("Cannot decode violation: " + e.getMessage());
+        }
+    }
+
+    private static Float asFloat(final String value) {
+        try {
+            float number = Float.parseFloat(value);
+            return Float.toString(number).equals(value) ? number : null;
+        } catch (NumberFormatException | NullPointerException e) {
+            return null;
+        }
+    }
+
+    private static void writeValue(final CodedOutputStream out, final String value) throws IOException {
+        Float number = asFloat(value);
+        if (number != null) {
+            out.writeUInt32NoTag(VALUE_FLOAT);
+            out.writeFloatNoTag(number);
+        } else {
+            out.writeUInt32NoTag(VALUE_STRING);
+            writeString(out, value);
+        }
+    }
+
+    private static String readValue(final CodedInputStream in) throws IOException {
+        if (in.readUInt32() == VALUE_FLOAT) {
+            return Float.toString(in.readFloat());
+        }
+        return readString(in);
+    }
+
+    private static void writeString(final CodedOutputStream out, final String value) throws IOException {
+        if (value == null) {
+            out.writeUInt32NoTag(0);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeUInt32NoTag(utf8.length + 1);
+        out.writeRawBytes(utf8);
+    }
+
+    private static String readString(final CodedInputStream in) throws IOException {
+        int length = in.readUInt32();
+        if (length == 0) {
+            return null;
+        }
+        return new String(in.readRawBytes(length - 1), StandardCharsets.UTF_8);
+    }
+
+    // secondi del giorno + 1 (0 se null) e poi i nanosecondi, quasi sempre 0
+    private static void writeTime(final CodedOutputStream out, final LocalTime time) throws IOException {
+        if (time == null) {
+            out.writeUInt32NoTag(0);
+            return;
+        }
+        out.writeUInt32NoTag(time.toSecondOfDay() + 1);
+        out.writeUInt32NoTag(time.getNano());
+    }
+
+    private static LocalTime readTime(final CodedInputStream in) throws IOException {
+        int seconds = in.readUInt32();
+        if (seconds == 0) {
+            return null;
+        }
+        return LocalTime.ofSecondOfDay(seconds - 1).withNano(in.readUInt32());
+    }
+
+}
@@ -0,0 +1,55 @@
+package org.hyperledger.fabric.samples.assettransfer;
+
+import java.util.Iterator;
+
+import org.hyperledger.fabric.protos.peer.QueryResponseMetadata;
+import org.hyperledger.fabric.shim.ChaincodeException;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIteratorWithMetadata;
+
+public final class LedgerQuery implements Iterable<KeyValue>, AutoCloseable {
+    // una query del ledger da aprire in try-with-resources: si chiude anche quando la scansione esce prima della fine
+    // close non dichiara Exception, così il try non ha catch e non dà il warning [try] di javac
+
+    private final Iterable<KeyValue> results;
+
+    private final AutoCloseable query;
+
+    private final QueryResponseMetadata metadata; // null se la query non è paginata
+
+    public LedgerQuery(final QueryResultsIterator<KeyValue> results) {
+        this.results = results;
+        this.query = results;
+        this.metadata = null;
+    }
+
+    public LedgerQuery(final QueryResultsIteratorWithMetadata<KeyValue> results) {
+        this.results = results;
+        this.query = results;
+        this.metadata = results.getMetadata();
+    }
+
+    @Override
+    public Iterator<KeyValue> iterator() {
+        return results.iterator();
+    }
+
+    public QueryResponseMetadata getMetadata() {
+        return metadata;
+    }
+
+    @Override
+    public void close() {
+        try {
+            query.close();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            String errorMessage = String.format("Cannot close the query: %s", e.getMessage());
+            System.out.println(errorMessage);
+            throw new ChaincodeException(errorMessage);
+        }
+    }
+
+}
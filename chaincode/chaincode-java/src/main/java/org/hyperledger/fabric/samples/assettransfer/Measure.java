@@ -37,6 +37,8 @@ public class Measure {
     @Property()
     private final List<String> values;
 
+    @Property()
+    private String payloadHash; // SHA-256 del payload completo nella private data collection del gruppo, null se la misura è tutta pubblica
 
 
     public Measure(@JsonProperty("userID") final String userID, @JsonProperty("ID") final String ID, @JsonProperty("timestamp") final LocalTime timestamp,
@@ -79,4 +81,12 @@ public class Measure {
         return groupID;
     }
 
+    public String getPayloadHash() {
+        return payloadHash;
+    }
+
+    public void setPayloadHash(String payloadHash) {
+        this.payloadHash = payloadHash;
+    }
+
 }
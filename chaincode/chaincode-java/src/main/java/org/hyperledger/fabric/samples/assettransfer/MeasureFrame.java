@@ -0,0 +1,61 @@
+package org.hyperledger.fabric.samples.assettransfer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class MeasureFrame {
+    // i valori di una misura già convertiti in float, con l'indice di ogni variabile
+    // si costruisce una volta per misura, i controlli delle regole poi non allocano
+
+    private final String[] names;
+
+    private final float[] values;
+
+    private final Map<String, Integer> index;
+
+    public MeasureFrame(final List<String> valueNames, final List<String> values) {
+        if (valueNames.size() != values.size()) {
+            throw new IllegalArgumentException("The measure has " + valueNames.size() + " names and " + values.size() + " values");
+        }
+        this.names = valueNames.toArray(new String[0]);
+        this.values = new float[values.size()];
+        this.index = new HashMap<String, Integer>(valueNames.size() * 2);
+        for (int i = 0; i < values.size(); i++) {
+            this.values[i] = Float.parseFloat(values.get(i));
+            this.index.putIfAbsent(valueNames.get(i), i);
+        }
+    }
+
+    public MeasureFrame(final Measure measure) {
+        this(measure.getValueNames(), measure.getValues());
+    }
+
+    public boolean has(final String variable) {
+        return index.containsKey(variable);
+    }
+
+    // -1 se la misura non contiene la variabile
+    public int indexOf(final String variable) {
+        Integer i = index.get(variable);
+        return i == null ? -1 : i;
+    }
+
+    public String name(final int i) {
+        return names[i];
+    }
+
+    // false se la variabile in posizione i compare già prima nella misura
+    public boolean isFirst(final int i) {
+        return index.get(names[i]) == i;
+    }
+
+    public float value(final int i) {
+        return values[i];
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+}
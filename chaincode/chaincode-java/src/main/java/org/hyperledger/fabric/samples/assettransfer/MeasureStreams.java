@@ -0,0 +1,76 @@
+package org.hyperledger.fabric.samples.assettransfer;
+
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hyperledger.fabric.shim.ChaincodeException;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+public final class MeasureStreams {
+    // gli stream di misure di una transazione: il token del device ("UUID"+uuid) e i nomi dei valori dello stream
+    // le misure salvate tengono solo il riferimento allo stream, utente, gruppo, device e nomi si ricostruiscono da qui
+    // ogni stream si legge una volta sola, anche quando una scansione decodifica molte misure dello stesso device
+
+    // streamNames~groupID~uuid -> i nomi dei valori della prima misura dello stream, con il gruppo per poterli togliere con purgeGroup
+    static final String STREAM_NAMES = "streamNames";
+
+    private static final Type NAMES_TYPE = new TypeToken<List<String>>() { }.getType();
+
+    private static final Gson gson = new Gson();
+
+    private final ChaincodeStub stub;
+
+    private final Map<String, IDToken> tokens = new HashMap<String, IDToken>();
+
+    private final Map<String, List<String>> names = new HashMap<String, List<String>>();
+
+    public MeasureStreams(final ChaincodeStub stub) {
+        this.stub = stub;
+    }
+
+    public IDToken token(final String uuid) {
+        IDToken token = tokens.get(uuid);
+        if (token == null) {
+            String tokenState = stub.getStringState("UUID" + uuid);
+            if (tokenState == null || tokenState.isEmpty()) {
+                String errorMessage = String.format("Stream %s does not exist", uuid);
+                System.out.println(errorMessage);
+                throw new ChaincodeException(errorMessage);
+            }
+            token = gson.fromJson(tokenState, IDToken.class);
+            tokens.put(uuid, token);
+        }
+        return token;
+    }
+
+    // null se lo stream non ha ancora nomi registrati
+    public List<String> valueNames(final String uuid) {
+        if (!names.containsKey(uuid)) {
+            String namesState = stub.getStringState(namesKey(uuid));
+            List<String> streamNames = (namesState == null || namesState.isEmpty()) ? null : gson.fromJson(namesState, NAMES_TYPE);
+            names.put(uuid, streamNames);
+        }
+        return names.get(uuid);
+    }
+
+    // i nomi dello stream; la prima misura li registra
+    public List<String> register(final String uuid, final List<String> valueNames) {
+        List<String> streamNames = valueNames(uuid);
+        if (streamNames == null) {
+            stub.putStringState(namesKey(uuid), gson.toJson(valueNames));
+            names.put(uuid, valueNames);
+            streamNames = valueNames;
+        }
+        return streamNames;
+    }
+
+    private String namesKey(final String uuid) {
+        return stub.createCompositeKey(STREAM_NAMES, token(uuid).getGroupid(), uuid).toString();
+    }
+
+}
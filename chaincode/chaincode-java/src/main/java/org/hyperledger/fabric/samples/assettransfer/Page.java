@@ -0,0 +1,32 @@
+package org.hyperledger.fabric.samples.assettransfer;
+
+import java.util.List;
+
+public class Page<T> {
+    // una pagina di una query paginata, il bookmark serve per chiedere la pagina successiva
+
+    private final List<T> records;
+
+    private final int fetchedRecordsCount;
+
+    private final String bookmark; // vuoto se non ci sono altre pagine
+
+    public Page(final List<T> records, final int fetchedRecordsCount, final String bookmark) {
+        this.records = records;
+        this.fetchedRecordsCount = fetchedRecordsCount;
+        this.bookmark = bookmark;
+    }
+
+    public List<T> getRecords() {
+        return records;
+    }
+
+    public int getFetchedRecordsCount() {
+        return fetchedRecordsCount;
+    }
+
+    public String getBookmark() {
+        return bookmark;
+    }
+
+}
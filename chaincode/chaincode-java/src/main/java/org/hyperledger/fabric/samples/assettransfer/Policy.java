@@ -1,7 +1,13 @@
 package org.hyperledger.fabric.samples.assettransfer;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 
@@ -25,14 +31,33 @@ public class Policy {
     @Property()
     private List<ValueRule> value_rules;
 
+    @Property()
+    private List<AggregateRule> aggregate_rules;
+
     @Property()
     private long reset_time;
 
+    // le regole per variabile monitorata, calcolate alla prima richiesta e non salvate sul ledger
+    // la stessa policy può essere in cache e letta da più transazioni insieme: gli indici si costruiscono per intero,
+    // non si modificano e si pubblicano con un campo volatile
+    private transient volatile Map<String, List<TimeRule>> timeRulesByVariable;
+
+    private transient volatile Map<String, List<ValueRule>> valueRulesByVariable;
+
+    private transient volatile Map<String, List<AggregateRule>> aggregateRulesByVariable;
+
+    // il digest del contenuto, calcolato una volta per oggetto
+    private transient volatile String contentDigest;
+
+    // l'ID della policy di un gruppo che non ne ha ancora votata una, non ha un record sul ledger
+    public static final String DEFAULT_ID = "0";
+
     public Policy(){
-        this.ID = "0";
+        this.ID = DEFAULT_ID;
         this.policyType = PolicyType.TIME;
         this.time_rules = new ArrayList<TimeRule>();
         this.value_rules = new ArrayList<ValueRule>();
+        this.aggregate_rules = new ArrayList<AggregateRule>();
         this.reset_time = 43800; //a month
     }
 
@@ -40,6 +65,9 @@ public class Policy {
         this.ID = ID;
         this.policyType = policyType;
         this.reset_time = 43800;
+        this.time_rules = new ArrayList<TimeRule>();
+        this.value_rules = new ArrayList<ValueRule>();
+        this.aggregate_rules = new ArrayList<AggregateRule>();
         Integer counter = 0;
         if (null == policyType) {
            throw new IllegalArgumentException("Unknown policy type.");
@@ -114,6 +142,27 @@ public class Policy {
                     }       
                     break;
                 }
+            case AGGREGATE:
+                {
+                    int ruleSize = 6; // Each AggregateRule requires 6 elements
+                    if (rules.size() % ruleSize != 0) {
+                        throw new IllegalArgumentException("Invalid number of arguments for AGGREGATE policy.");
+                    }
+                    for (int i = 0; i < rules.size(); i += ruleSize) {
+                        AggregateRule aggregateRule = new AggregateRule(
+                                ID + "_" + Integer.toString(counter),
+                                rules.get(i),
+                                rules.get(i + 1),
+                                Long.parseLong(rules.get(i + 2)),
+                                Integer.valueOf(rules.get(i + 3)),
+                                rules.get(i + 4),
+                                Float.valueOf(rules.get(i + 5))
+                        );
+                        this.aggregate_rules.add(aggregateRule);
+                        counter = counter + 1;
+                    }
+                    break;
+                }
             default:
                 throw new IllegalArgumentException("Unknown policy type.");
         }    
@@ -123,6 +172,9 @@ public class Policy {
         this.ID = ID;
         this.policyType = policyType;
         this.reset_time = reset_time;
+        this.time_rules = new ArrayList<TimeRule>();
+        this.value_rules = new ArrayList<ValueRule>();
+        this.aggregate_rules = new ArrayList<AggregateRule>();
         Integer counter = 0;
         if (null == policyType) {
            throw new IllegalArgumentException("Unknown policy type.");
@@ -197,6 +249,27 @@ public class Policy {
                     }       
                     break;
                 }
+            case AGGREGATE:
+                {
+                    int ruleSize = 6; // Each AggregateRule requires 6 elements
+                    if (rules.size() % ruleSize != 0) {
+                        throw new IllegalArgumentException("Invalid number of arguments for AGGREGATE policy.");
+                    }
+                    for (int i = 0; i < rules.size(); i += ruleSize) {
+                        AggregateRule aggregateRule = new AggregateRule(
+                                ID + "_" + Integer.toString(counter),
+                                rules.get(i),
+                                rules.get(i + 1),
+                                Long.parseLong(rules.get(i + 2)),
+                                Integer.valueOf(rules.get(i + 3)),
+                                rules.get(i + 4),
+                                Float.valueOf(rules.get(i + 5))
+                        );
+                        this.aggregate_rules.add(aggregateRule);
+                        counter = counter + 1;
+                    }
+                    break;
+                }
             default:
                 throw new IllegalArgumentException("Unknown policy type.");
         }
@@ -220,10 +293,79 @@ public class Policy {
         return value_rules;
     }
 
+    public List<AggregateRule> getAggregateRules() {
+        return aggregate_rules;
+    }
+
     public long getReset_Time(){
         return reset_time;
     }
 
+    public List<String> getMonitoredVariables(){
+        List<String> list = new ArrayList<String>();
+        for (TimeRule tr : this.getTimeRules()){
+            if (!list.contains(tr.getDataMonitored())) {
+                list.add(tr.getDataMonitored());
+            }
+        }
+        for (ValueRule vr : this.getValueRules()){
+            if (!list.contains(vr.getDataMonitored())) {
+                list.add(vr.getDataMonitored());
+            }
+        }
+        for (AggregateRule ar : this.getAggregateRules()){
+            if (!list.contains(ar.getDataMonitored())) {
+                list.add(ar.getDataMonitored());
+            }
+        }
+        return list;
+    }
+
+    // le regole di tempo che si applicano a una variabile, vuota se nessuna
+    public List<TimeRule> timeRulesOf(String variable){
+        Map<String, List<TimeRule>> index = timeRulesByVariable;
+        if (index == null) {
+            Map<String, List<TimeRule>> rules = new HashMap<String, List<TimeRule>>();
+            for (TimeRule tr : this.getTimeRules()){
+                rules.computeIfAbsent(tr.getDataMonitored(), k -> new ArrayList<TimeRule>()).add(tr);
+            }
+            rules.replaceAll((k, v) -> Collections.unmodifiableList(v));
+            index = Collections.unmodifiableMap(rules);
+            timeRulesByVariable = index;
+        }
+        return index.getOrDefault(variable, Collections.emptyList());
+    }
+
+    // le regole di valore che si applicano a una variabile, vuota se nessuna
+    public List<ValueRule> valueRulesOf(String variable){
+        Map<String, List<ValueRule>> index = valueRulesByVariable;
+        if (index == null) {
+            Map<String, List<ValueRule>> rules = new HashMap<String, List<ValueRule>>();
+            for (ValueRule vr : this.getValueRules()){
+                rules.computeIfAbsent(vr.getDataMonitored(), k -> new ArrayList<ValueRule>()).add(vr);
+            }
+            rules.replaceAll((k, v) -> Collections.unmodifiableList(v));
+            index = Collections.unmodifiableMap(rules);
+            valueRulesByVariable = index;
+        }
+        return index.getOrDefault(variable, Collections.emptyList());
+    }
+
+    // le regole aggregate che si applicano a una variabile, vuota se nessuna
+    public List<AggregateRule> aggregateRulesOf(String variable){
+        Map<String, List<AggregateRule>> index = aggregateRulesByVariable;
+        if (index == null) {
+            Map<String, List<AggregateRule>> rules = new HashMap<String, List<AggregateRule>>();
+            for (AggregateRule ar : this.getAggregateRules()){
+                rules.computeIfAbsent(ar.getDataMonitored(), k -> new ArrayList<AggregateRule>()).add(ar);
+            }
+            rules.replaceAll((k, v) -> Collections.unmodifiableList(v));
+            index = Collections.unmodifiableMap(rules);
+            aggregateRulesByVariable = index;
+        }
+        return index.getOrDefault(variable, Collections.emptyList());
+    }
+
     public List<String> getRulesIDs(){
         List<String> list = new ArrayList();
         for (TimeRule tr : this.getTimeRules()){
@@ -232,9 +374,46 @@ public class Policy {
         for (ValueRule vr : this.getValueRules()){
             list.add(vr.getID());
         }
+        for (AggregateRule ar : this.getAggregateRules()){
+            list.add(ar.getID());
+        }
         return list;
     }
 
+    // SHA-256 della forma canonica del contenuto, senza gli ID: due policy con lo stesso digest sono uguali per equals
+    public String contentDigest(){
+        String digest = contentDigest;
+        if (digest == null) {
+            digest = computeContentDigest();
+            contentDigest = digest;
+        }
+        return digest;
+    }
+
+    private String computeContentDigest(){
+        StringBuilder sb = new StringBuilder();
+        sb.append(policyType).append('|').append(reset_time);
+        for (TimeRule tr : this.getTimeRules()){
+            sb.append("|T:").append(tr.getDataMonitored()).append(',').append(tr.getSampling()).append(',').append(tr.getTolerance());
+        }
+        for (ValueRule vr : this.getValueRules()){
+            sb.append("|V:").append(vr.getDataMonitored()).append(',').append(vr.getTolerance()).append(',').append(vr.getOperator1()).append(',').append(vr.getThreshold1())
+                .append(',').append(vr.getOperator2()).append(',').append(vr.getThreshold2());
+        }
+        for (AggregateRule ar : this.getAggregateRules()){
+            sb.append("|A:").append(ar.getDataMonitored()).append(',').append(ar.getFunction()).append(',').append(ar.getWindow()).append(',').append(ar.getTolerance())
+                .append(',').append(ar.getOperator()).append(',').append(ar.getThreshold());
+        }
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(sb.toString().getBytes(StandardCharsets.UTF_8))) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 
     @Override
     public String toString() {
@@ -245,6 +424,7 @@ public class Policy {
         sb.append(", resetTime=").append(reset_time);
         sb.append(", time_rules=").append(time_rules);
         sb.append(", value_rules=").append(value_rules);
+        sb.append(", aggregate_rules=").append(aggregate_rules);
         sb.append('}');
         return sb.toString();
     }
@@ -252,7 +432,7 @@ public class Policy {
 
     @Override
     public int hashCode() {
-        return Objects.hash(getPolicyType(), getReset_Time(), getTimeRules(), getValueRules());
+        return Objects.hash(getPolicyType(), getReset_Time(), getTimeRules(), getValueRules(), getAggregateRules());
     }
 
     @Override
@@ -266,7 +446,8 @@ public class Policy {
         Policy other = (Policy) obj;
         return getPolicyType() == other.getPolicyType() && getReset_Time() == other.getReset_Time() &&
                Objects.equals(this.getTimeRules(), other.getTimeRules()) &&
-               Objects.equals(this.getValueRules(), other.getValueRules());
+               Objects.equals(this.getValueRules(), other.getValueRules()) &&
+               Objects.equals(this.getAggregateRules(), other.getAggregateRules());
     }
 
 }
\ No newline at end of file
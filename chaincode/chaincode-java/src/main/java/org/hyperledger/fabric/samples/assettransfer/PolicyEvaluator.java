@@ -0,0 +1,317 @@
+package org.hyperledger.fabric.samples.assettransfer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hyperledger.fabric.shim.ChaincodeException;
+
+public final class PolicyEvaluator {
+    // una policy compilata una volta: operatori già risolti, soglie float e intervalli di campionamento interi
+    // le policy compilate restano in cache nel processo del chaincode, per ID; la stessa istanza di Policy (dalla cache
+    // dei record immutabili) si riconosce con un confronto di riferimenti, un'altra istanza con il digest del contenuto
+
+    private static final int CACHE_SIZE = 64;
+
+    private static final Map<String, PolicyEvaluator> cache = new LinkedHashMap<String, PolicyEvaluator>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, PolicyEvaluator> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private final Policy policy;
+
+    private final String digest;
+
+    private final List<TimeRuleCheck> timeRules;
+
+    private final List<ValueRuleCheck> valueRules;
+
+    // le stesse regole indicizzate per variabile monitorata, così una misura visita solo le regole delle sue variabili
+    private final Map<String, List<TimeRuleCheck>> timeRulesByVariable;
+
+    private final Map<String, List<ValueRuleCheck>> valueRulesByVariable;
+
+    private final Map<String, List<AggregateRuleCheck>> aggregateRulesByVariable;
+
+    private PolicyEvaluator(final Policy policy) {
+        this.policy = policy;
+        this.digest = policy.contentDigest();
+        List<TimeRuleCheck> timeRules = new ArrayList<TimeRuleCheck>();
+        List<ValueRuleCheck> valueRules = new ArrayList<ValueRuleCheck>();
+        Map<String, List<TimeRuleCheck>> timeRulesByVariable = new HashMap<String, List<TimeRuleCheck>>();
+        Map<String, List<ValueRuleCheck>> valueRulesByVariable = new HashMap<String, List<ValueRuleCheck>>();
+        Map<String, List<AggregateRuleCheck>> aggregateRulesByVariable = new HashMap<String, List<AggregateRuleCheck>>();
+        for (String variable : policy.getMonitoredVariables()) {
+            List<TimeRuleCheck> timeChecks = new ArrayList<TimeRuleCheck>();
+            for (TimeRule rule : policy.timeRulesOf(variable)) {
+                timeChecks.add(new TimeRuleCheck(rule));
+            }
+            List<ValueRuleCheck> valueChecks = new ArrayList<ValueRuleCheck>();
+            for (ValueRule rule : policy.valueRulesOf(variable)) {
+                valueChecks.add(new ValueRuleCheck(rule));
+            }
+            timeRules.addAll(timeChecks);
+            valueRules.addAll(valueChecks);
+            if (!timeChecks.isEmpty()) {
+                timeRulesByVariable.put(variable, Collections.unmodifiableList(timeChecks));
+            }
+            if (!valueChecks.isEmpty()) {
+                valueRulesByVariable.put(variable, Collections.unmodifiableList(valueChecks));
+            }
+            List<AggregateRuleCheck> aggregateChecks = new ArrayList<AggregateRuleCheck>();
+            for (AggregateRule rule : policy.aggregateRulesOf(variable)) {
+                aggregateChecks.add(new AggregateRuleCheck(rule));
+            }
+            if (!aggregateChecks.isEmpty()) {
+                aggregateRulesByVariable.put(variable, Collections.unmodifiableList(aggregateChecks));
+            }
+        }
+        this.timeRules = Collections.unmodifiableList(timeRules);
+        this.valueRules = Collections.unmodifiableList(valueRules);
+        this.timeRulesByVariable = timeRulesByVariable;
+        this.valueRulesByVariable = valueRulesByVariable;
+        this.aggregateRulesByVariable = aggregateRulesByVariable;
+    }
+
+    public static PolicyEvaluator of(final Policy policy) {
+        PolicyEvaluator evaluator;
+        synchronized (cache) {
+            evaluator = cache.get(policy.getID());
+        }
+        if (evaluator != null && (evaluator.policy == policy || evaluator.digest.equals(policy.contentDigest()))) {
+            return evaluator;
+        }
+        evaluator = new PolicyEvaluator(policy);
+        synchronized (cache) {
+            cache.put(policy.getID(), evaluator);
+        }
+        return evaluator;
+    }
+
+    public List<TimeRuleCheck> getTimeRules() {
+        return timeRules;
+    }
+
+    public List<ValueRuleCheck> getValueRules() {
+        return valueRules;
+    }
+
+    public List<TimeRuleCheck> timeRulesOf(final String variable) {
+        return timeRulesByVariable.getOrDefault(variable, Collections.emptyList());
+    }
+
+    public List<ValueRuleCheck> valueRulesOf(final String variable) {
+        return valueRulesByVariable.getOrDefault(variable, Collections.emptyList());
+    }
+
+    // il campionamento più stretto tra le regole di tempo di una variabile, 0 se nessuna la monitora
+    public long samplingSecondsOf(final String variable) {
+        long sampling = 0;
+        for (TimeRuleCheck rule : timeRulesOf(variable)) {
+            if (sampling == 0 || rule.getSamplingSeconds() < sampling) {
+                sampling = rule.getSamplingSeconds();
+            }
+        }
+        return sampling;
+    }
+
+    public List<AggregateRuleCheck> aggregateRulesOf(final String variable) {
+        return aggregateRulesByVariable.getOrDefault(variable, Collections.emptyList());
+    }
+
+    private interface Condition {
+        boolean isViolatedBy(float value);
+    }
+
+    // gli operatori di una regola con una sola soglia
+    private static Condition oneOperator(final String operator, final float threshold) {
+        switch (operator) {
+            case "==":
+                return value -> value != threshold;
+            case ">=<":
+                return value -> value == threshold;
+            default:
+                return oneSide(operator, threshold);
+        }
+    }
+
+    // le regole aggregate sono nuove e non ereditano il "<=" delle regole di valore: un aggregato uguale alla soglia la rispetta
+    private static Condition aggregateOperator(final String operator, final float threshold) {
+        if (operator.equals("<=")) {
+            return value -> value > threshold;
+        }
+        return oneOperator(operator, threshold);
+    }
+
+    // gli operatori di un lato di un intervallo
+    private static Condition oneSide(final String operator, final float threshold) {
+        switch (operator) {
+            case ">":
+                return value -> value <= threshold;
+            case ">=":
+                return value -> value < threshold;
+            case "<":
+                return value -> value >= threshold;
+            case "<=":
+                return value -> value >= threshold;
+            default:
+                String errorMessage = String.format("Operator %s is not valid", operator);
+                System.out.println(errorMessage);
+                throw new ChaincodeException(errorMessage);
+        }
+    }
+
+    public static final class TimeRuleCheck {
+
+        private final String ID;
+
+        private final String dataMonitored;
+
+        private final long samplingSeconds;
+
+        private final int tolerance;
+
+        private TimeRuleCheck(final TimeRule rule) {
+            this.ID = rule.getID();
+            this.dataMonitored = rule.getDataMonitored();
+            this.samplingSeconds = Long.parseLong(rule.getSampling());
+            this.tolerance = rule.getTolerance();
+        }
+
+        public String getID() {
+            return ID;
+        }
+
+        public String getDataMonitored() {
+            return dataMonitored;
+        }
+
+        public long getSamplingSeconds() {
+            return samplingSeconds;
+        }
+
+        public int getTolerance() {
+            return tolerance;
+        }
+
+    }
+
+    public static final class ValueRuleCheck {
+
+        private final String ID;
+
+        private final String dataMonitored;
+
+        private final int tolerance;
+
+        private final Condition condition;
+
+        private final String limit; // la parte del messaggio di violazione che descrive la soglia
+
+        private final boolean range;
+
+        private ValueRuleCheck(final ValueRule rule) {
+            this.ID = rule.getID();
+            this.dataMonitored = rule.getDataMonitored();
+            this.tolerance = rule.getTolerance();
+            this.range = !(rule.getOperator2().equals("") && rule.getThreshold2().equals(Float.POSITIVE_INFINITY));
+            if (range) {
+                Condition lower = oneSide(rule.getOperator1(), rule.getThreshold1());
+                Condition upper = oneSide(rule.getOperator2(), rule.getThreshold2());
+                this.condition = value -> lower.isViolatedBy(value) || upper.isViolatedBy(value);
+                this.limit = rule.getOperator1() + " " + rule.getThreshold1() + rule.getOperator2() + rule.getThreshold2();
+            } else {
+                this.condition = oneOperator(rule.getOperator1(), rule.getThreshold1());
+                this.limit = rule.getOperator1() + " " + rule.getThreshold1();
+            }
+        }
+
+        public String getID() {
+            return ID;
+        }
+
+        public String getDataMonitored() {
+            return dataMonitored;
+        }
+
+        public int getTolerance() {
+            return tolerance;
+        }
+
+        public boolean isViolatedBy(final float value) {
+            return condition.isViolatedBy(value);
+        }
+
+        public String describe(final float value) {
+            if (range) {
+                return "Data " + dataMonitored + "Value " + String.valueOf(value) + "is outside the allowed interval " + limit;
+            }
+            return "Data " + dataMonitored + "Value " + String.valueOf(value) + " does not respect the limit " + limit;
+        }
+
+    }
+
+    public static final class AggregateRuleCheck {
+
+        private final String ID;
+
+        private final String dataMonitored;
+
+        private final String function;
+
+        private final long windowSeconds;
+
+        private final int tolerance;
+
+        private final Condition condition;
+
+        private final String limit;
+
+        private AggregateRuleCheck(final AggregateRule rule) {
+            this.ID = rule.getID();
+            this.dataMonitored = rule.getDataMonitored();
+            this.function = rule.getFunction();
+            this.windowSeconds = rule.getWindow();
+            this.tolerance = rule.getTolerance();
+            this.condition = aggregateOperator(rule.getOperator(), rule.getThreshold());
+            this.limit = rule.getOperator() + " " + rule.getThreshold();
+        }
+
+        public String getID() {
+            return ID;
+        }
+
+        public String getDataMonitored() {
+            return dataMonitored;
+        }
+
+        public String getFunction() {
+            return function;
+        }
+
+        public int getTolerance() {
+            return tolerance;
+        }
+
+        // l'inizio della finestra che contiene l'istante, in secondi dall'epoch; le finestre ripartono a mezzanotte UTC
+        public long windowOf(final long epochSecond) {
+            long midnight = epochSecond - Math.floorMod(epochSecond, 86400L);
+            return midnight + (epochSecond - midnight) / windowSeconds * windowSeconds;
+        }
+
+        public boolean isViolatedBy(final double aggregate) {
+            return condition.isViolatedBy((float) aggregate);
+        }
+
+        public String describe(final double aggregate) {
+            return "Data " + dataMonitored + " " + function + " over " + windowSeconds + " seconds " + String.valueOf(aggregate) + " does not respect the limit " + limit;
+        }
+
+    }
+
+}
@@ -3,12 +3,14 @@ package org.hyperledger.fabric.samples.assettransfer;
 public enum PolicyType {
     TIME(Type.TIME),
     VALUE(Type.VALUE),
-    TIMEVALUE(Type.TIMEVALUE);
+    TIMEVALUE(Type.TIMEVALUE),
+    AGGREGATE(Type.AGGREGATE);
 
     public class Type {
         public static final String TIME = "TIME";
         public static final String VALUE = "VALUE";
         public static final String TIMEVALUE = "TIMEVALUE";
+        public static final String AGGREGATE = "AGGREGATE";
     }
 
     private final String label;
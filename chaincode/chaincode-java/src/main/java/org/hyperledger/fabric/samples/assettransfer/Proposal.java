@@ -0,0 +1,42 @@
+package org.hyperledger.fabric.samples.assettransfer;
+
+import org.hyperledger.fabric.contract.annotation.DataType;
+import org.hyperledger.fabric.contract.annotation.Property;
+
+import com.owlike.genson.annotation.JsonProperty;
+
+@DataType()
+public class Proposal {
+    // una policy proposta a un gruppo, chiave proposal~groupID~digest
+    // il digest è calcolato sul contenuto della policy: due policy uguali danno la stessa chiave
+    // i voti non stanno qui ma nelle schede dei votanti, così voti concorrenti non scrivono la stessa chiave
+
+    @Property()
+    private final String groupID;
+
+    @Property()
+    private final String digest;
+
+    @Property()
+    private final String policyID;
+
+    public Proposal(@JsonProperty("groupID") final String groupID, @JsonProperty("digest") final String digest,
+    @JsonProperty("policyID") final String policyID) {
+        this.groupID = groupID;
+        this.digest = digest;
+        this.policyID = policyID;
+    }
+
+    public String getGroupID() {
+        return groupID;
+    }
+
+    public String getDigest() {
+        return digest;
+    }
+
+    public String getPolicyID() {
+        return policyID;
+    }
+
+}
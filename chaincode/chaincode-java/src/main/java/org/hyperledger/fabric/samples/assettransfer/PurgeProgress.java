@@ -0,0 +1,31 @@
+package org.hyperledger.fabric.samples.assettransfer;
+
+import org.hyperledger.fabric.contract.annotation.DataType;
+import org.hyperledger.fabric.contract.annotation.Property;
+
+import com.owlike.genson.annotation.JsonProperty;
+
+@DataType()
+public class PurgeProgress {
+    // il risultato di una transazione di purgeGroup, il bookmark serve per chiamare la successiva
+
+    @Property()
+    private final int deleted; // record eliminati da questa transazione
+
+    @Property()
+    private final String bookmark; // vuoto quando il gruppo non ha più dati
+
+    public PurgeProgress(@JsonProperty("deleted") final int deleted, @JsonProperty("bookmark") final String bookmark) {
+        this.deleted = deleted;
+        this.bookmark = bookmark;
+    }
+
+    public int getDeleted() {
+        return deleted;
+    }
+
+    public String getBookmark() {
+        return bookmark;
+    }
+
+}
@@ -0,0 +1,58 @@
+package org.hyperledger.fabric.samples.assettransfer;
+
+import java.time.LocalTime;
+import java.util.HashMap;
+import java.util.Map;
+
+public final class UserWarnings {
+    // i warning di un utente in un gruppo durante il controllo delle misure, uno per regola
+    // un warning si legge solo quando una misura viola la sua regola, non uno per ogni regola della policy a ogni misura;
+    // la lettura passa dal contesto della transazione, che lo tiene per le misure successive della stessa transazione
+
+    // warning~groupID~userID~ruleID -> Warning, fuori dal record del gruppo
+    static final String WARNING = "warning";
+
+    private final CertifierContext unitOfWork;
+
+    private final String groupID;
+
+    private final String userID;
+
+    private final LocalTime resetTimestamp; // la finestra di reset corrente, i warning registrati prima non valgono più
+
+    private final Map<String, Warning> warnings = new HashMap<String, Warning>();
+
+    public UserWarnings(final CertifierContext unitOfWork, final String groupID, final String userID, final LocalTime resetTimestamp) {
+        this.unitOfWork = unitOfWork;
+        this.groupID = groupID;
+        this.userID = userID;
+        this.resetTimestamp = resetTimestamp;
+    }
+
+    // il warning di una regola, nuovo se l'utente non ne ha nella finestra di reset corrente
+    public Warning of(final String ruleID) {
+        Warning warning = warnings.get(ruleID);
+        if (warning == null) {
+            warning = unitOfWork.get(key(ruleID), Warning.class);
+            if (warning == null || !resetTimestamp.equals(warning.getResetTimestamp())) {
+                warning = new Warning(groupID, userID, ruleID, resetTimestamp);
+            }
+            warnings.put(ruleID, warning);
+        }
+        return warning;
+    }
+
+    // i warning dati da una misura si scrivono con il contesto, gli altri non si toccano
+    public void putRaisedBy(final String measureID) {
+        for (Warning warning : warnings.values()) {
+            if (measureID.equals(warning.getLastMeasureID())) {
+                unitOfWork.put(key(warning.getRuleID()), warning);
+            }
+        }
+    }
+
+    private String key(final String ruleID) {
+        return unitOfWork.getStub().createCompositeKey(WARNING, groupID, userID, ruleID).toString();
+    }
+
+}
@@ -0,0 +1,44 @@
+package org.hyperledger.fabric.samples.assettransfer;
+
+import org.hyperledger.fabric.contract.annotation.DataType;
+import org.hyperledger.fabric.contract.annotation.Property;
+
+import com.owlike.genson.annotation.JsonProperty;
+
+@DataType()
+public class Verdict {
+    // l'esito di sendAndCheck per una misura, chiave verdict~measureID
+    // un nuovo invio della stessa misura restituisce questo esito senza rieseguire i controlli
+
+    @Property()
+    private final String measureID;
+
+    @Property()
+    private final String digest; // SHA-256 degli argomenti dell'invio, un ID riusato con valori diversi è un errore
+
+    @Property()
+    private final String violationID; // null se la misura rispetta la policy
+
+    public Verdict(@JsonProperty("measureID") final String measureID, @JsonProperty("digest") final String digest, @JsonProperty("violationID") final String violationID) {
+        this.measureID = measureID;
+        this.digest = digest;
+        this.violationID = violationID;
+    }
+
+    public String getMeasureID() {
+        return measureID;
+    }
+
+    public String getDigest() {
+        return digest;
+    }
+
+    public String getViolationID() {
+        return violationID;
+    }
+
+    public boolean isViolated() {
+        return violationID != null;
+    }
+
+}
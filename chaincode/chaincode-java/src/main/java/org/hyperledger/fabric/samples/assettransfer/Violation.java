@@ -68,6 +68,22 @@ public class Violation {
         return deviceID;
     }
 
+    public String getUserID() {
+        return userID;
+    }
+
+    public String getGroupID() {
+        return groupID;
+    }
+
+    public String getMeasureID() {
+        return measureID;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
     public LocalTime getTimestamp() {
         return timestamp;
     }
@@ -0,0 +1,90 @@
+package org.hyperledger.fabric.samples.assettransfer;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hyperledger.fabric.contract.annotation.DataType;
+import org.hyperledger.fabric.contract.annotation.Property;
+
+import com.owlike.genson.annotation.JsonProperty;
+
+@DataType()
+public class Warning {
+    // i warning di un utente su una regola di un gruppo, chiave warning~groupID~userID~ruleID
+    // la tolleranza si controlla sul contatore, degli ID delle misure si tengono solo gli ultimi RECENT
+
+    public static final int RECENT = 10;
+
+    @Property()
+    private final String groupID;
+
+    @Property()
+    private final String userID;
+
+    @Property()
+    private final String ruleID;
+
+    @Property()
+    private final LocalTime resetTimestamp; // valgono solo se uguale al warning_reset_timestamp del gruppo
+
+    @Property()
+    private int count; // warning dall'inizio della finestra di reset
+
+    @Property()
+    private final List<String> measureIDs; // le ultime misure che hanno dato warning, dalla più vecchia
+
+    public Warning(@JsonProperty("groupID") final String groupID, @JsonProperty("userID") final String userID, @JsonProperty("ruleID") final String ruleID,
+    @JsonProperty("resetTimestamp") final LocalTime resetTimestamp, @JsonProperty("count") final int count, @JsonProperty("measureIDs") final List<String> measureIDs) {
+        this.groupID = groupID;
+        this.userID = userID;
+        this.ruleID = ruleID;
+        this.resetTimestamp = resetTimestamp;
+        this.count = count;
+        this.measureIDs = measureIDs;
+    }
+
+    public Warning(final String groupID, final String userID, final String ruleID, final LocalTime resetTimestamp) {
+        this(groupID, userID, ruleID, resetTimestamp, 0, new ArrayList<String>());
+    }
+
+    public String getGroupID() {
+        return groupID;
+    }
+
+    public String getUserID() {
+        return userID;
+    }
+
+    public String getRuleID() {
+        return ruleID;
+    }
+
+    public LocalTime getResetTimestamp() {
+        return resetTimestamp;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public List<String> getMeasureIDs() {
+        return measureIDs;
+    }
+
+    public String getLastMeasureID() {
+        if (measureIDs.isEmpty()) {
+            return null;
+        }
+        return measureIDs.get(measureIDs.size() - 1);
+    }
+
+    public void addMeasure(String measureID) {
+        count++;
+        measureIDs.add(measureID);
+        while (measureIDs.size() > RECENT) {
+            measureIDs.remove(0);
+        }
+    }
+
+}
@@ -2,6 +2,7 @@ package com.certifier;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
 import Schemas.ResponseSchema;
@@ -40,6 +41,9 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.InvalidKeyException;
 import java.time.LocalTime;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.HashMap;
 import java.util.Map;
@@ -79,6 +83,14 @@ public class App {
 
 	private static HashMap<String, String> timeStamps = new HashMap<String, String>();
 
+	// Records removed by each purgeGroup transaction.
+	private static final String PURGE_BATCH = System.getenv().getOrDefault("PURGE_BATCH", "500");
+	// Progress of the group purges, by groupId.
+	private static final Map<String, Map<String, Object>> purgeJobs = new ConcurrentHashMap<String, Map<String, Object>>();
+	private static final ExecutorService purgeExecutor = Executors.newSingleThreadExecutor();
+	// Expired deadlines handled by each sweepDeadlines transaction.
+	private static final String SWEEP_BATCH = System.getenv().getOrDefault("SWEEP_BATCH", "500");
+
 	
 	/** 
 	 * @return ManagedChannel
@@ -319,6 +331,19 @@ public class App {
 		return gson.toJson(parsedJson);
 	}
 
+	/**
+	 * Evaluate a paginated query
+	 * @param contract - The contract
+	 * @param transaction - The name of the paginated transaction
+	 * @param pageSize - The maximum number of records in the page
+	 * @param cursor - The bookmark returned with the previous page, null for the first page
+	 * @return - The page in JSON format, with the bookmark of the next page
+	 * @throws GatewayException
+	 */
+	private byte[] evaluatePage(Contract contract, String transaction, Integer pageSize, String cursor) throws GatewayException {
+		return contract.evaluateTransaction(transaction, pageSize.toString(), cursor == null ? "" : cursor);
+	}
+
 	/**
 	 * Get a user from the blockchain
 	 * @param objectNode - A JSON object containing the username of the caller in BC and the userId
@@ -764,7 +789,7 @@ public class App {
 	 * Create a new policy in the blockchain
 	 * @param objectNode - A JSON object containing the username of the caller in BC, userId, ID, 
 	 * 			samplingInterval (Allowed seconds between measures),
-	 * 			policyType (TIME, VALUE or TIMEVALUE),
+	 * 			policyType (TIME, VALUE, TIMEVALUE or AGGREGATE, whose rules are variable, sum/avg/min/max, window seconds, tolerance, operator, threshold),
 	 * 			valueNames (List of values to be measured, in this case their names),
 	 * 			valueThresholds and (List of values to be measured, in this case their thresholds),
 	 * 			operatorThresholds (List of operators to be used in the comparison: <, >, <=, >=, ==, >=<)
@@ -799,7 +824,7 @@ public class App {
 					)
 	)
 	@io.swagger.v3.oas.annotations.parameters.RequestBody(
-			description = "A JSON object containing the userId, ID, samplingInterval (Allowed seconds between measures), policyType (TIME, VALUE or TIMEVALUE), valueNames (List of values to be measured, in this case their names), valueThresholds and (List of values to be measured, in this case their thresholds), operatorThresholds (List of operators to be used in the comparison: <, >, <=, >=, ==, >=<)",
+			description = "A JSON object containing the userId, ID, samplingInterval (Allowed seconds between measures), policyType (TIME, VALUE, TIMEVALUE or AGGREGATE, whose rules are variable, sum/avg/min/max, window seconds, tolerance, operator, threshold), valueNames (List of values to be measured, in this case their names), valueThresholds and (List of values to be measured, in this case their thresholds), operatorThresholds (List of operators to be used in the comparison: <, >, <=, >=, ==, >=<)",
 			required = true,
 			content = @Content(
 					mediaType = "application/json",
@@ -1165,7 +1190,13 @@ public class App {
 					LocalTime timestamp = LocalTime.now();
 					timeStamps.put(measureId, timestamp.toString());
 					//contract.submitTransaction("sendMeasure", measureId, measureUUID, values, valueNames);
-					contract.submitTransaction("sendAndCheck", measureId, measureUUID, values, valueNames);
+					//The same measureId on every trial, a retry after an ambiguous commit gets the verdict already stored
+					var verdict = contract.submitTransaction("sendAndCheck", measureId, measureUUID, values, valueNames);
+					JsonObject verdictJson = JsonParser.parseString(new String(verdict, StandardCharsets.UTF_8)).getAsJsonObject();
+					if (verdictJson.has("violationID") && !verdictJson.get("violationID").isJsonNull()) {
+						System.out.println("*** Measure sent, policy violated");
+						return sendResponse("Measure sent, policy violated", HttpStatus.OK, prettyJson(verdict));
+					}
 				} catch (Exception e) {
 					e.printStackTrace();
 					timeStamps.remove(measureId);
@@ -1333,17 +1364,27 @@ public class App {
 	}
 	*/
 	/**
-	 * Reset a group in the blockchain
+	 * Reset a group in the blockchain and start the purge of its measures and violations
 	 * @param objectNode - A JSON object containing the username of the caller in BC and the groupId
+	 * @return - The progress of the purge, to be followed with GET /groups/{groupId}/purge
 	 */
 	@DeleteMapping("/groups/{groupId}")
-	@Operation(summary = "Reset a group in the blockchain")
-	@ApiResponse(responseCode = "200", description = "Group reset",
+	@Operation(summary = "Reset a group in the blockchain and purge its data in the background")
+	@ApiResponse(responseCode = "202", description = "Group reset, purge started",
+			content = @Content(
+					mediaType = "application/json",
+					schema = @Schema(implementation = ResponseSchema.class),
+					examples = @io.swagger.v3.oas.annotations.media.ExampleObject(							
+							value = "{\"message\": \"Group reset, purge started\", \"status\": \"ACCEPTED\", \"data\": {\"status\": \"RUNNING\", \"deleted\": 0, \"transactions\": 0, \"bookmark\": \"\"}}"
+							)
+					)
+	)
+	@ApiResponse(responseCode = "409", description = "Purge already running",
 			content = @Content(
 					mediaType = "application/json",
 					schema = @Schema(implementation = ResponseSchema.class),
 					examples = @io.swagger.v3.oas.annotations.media.ExampleObject(							
-							value = "{\"message\": \"Group reset\", \"status\": \"OK\", \"data\": null}"
+							value = "{\"message\": \"Purge already running\", \"status\": \"CONFLICT\", \"data\": {\"status\": \"RUNNING\", \"deleted\": 1500, \"transactions\": 3, \"bookmark\": \"measure\"}}"
 							)
 					)
 	)
@@ -1359,17 +1400,92 @@ public class App {
 	private ResponseEntity<Object> resetGroup(@RequestParam String username, @PathVariable String groupId) {
 		System.out.println("\n--> Submit Transaction: ResetGroup");
 
+		Map<String, Object> progress = new ConcurrentHashMap<String, Object>();
+		progress.put("status", "RUNNING");
+		progress.put("deleted", 0);
+		progress.put("transactions", 0);
+		progress.put("bookmark", "");
+
+		//The job is claimed atomically, only the request that put its progress in the map starts the purge
+		Map<String, Object> claimed = purgeJobs.compute(groupId, (id, running) -> (running != null && "RUNNING".equals(running.get("status"))) ? running : progress);
+		if (claimed != progress) {
+			return sendResponse("Purge already running", HttpStatus.CONFLICT, claimed);
+		}
+
 		try {
 			Contract contract = connect(username);
 			contract.submitTransaction("resetGroup", groupId);
 			timeStamps.clear();
-			return sendResponse("Group reset", HttpStatus.OK, null);
+
+			purgeExecutor.submit(() -> purgeGroup(contract, groupId, username, progress));
+
+			return sendResponse("Group reset, purge started", HttpStatus.ACCEPTED, progress);
 		} catch (Exception e) {
 			e.printStackTrace();
+			purgeJobs.remove(groupId, progress);
 			return sendResponse("Error resetting group", HttpStatus.INTERNAL_SERVER_ERROR, null);
 		}
 	}
 
+	/**
+	 * Get the progress of the purge of a group
+	 * @param groupId - The ID of the group
+	 * @return - The progress of the purge
+	 */
+	@GetMapping("/groups/{groupId}/purge")
+	@Operation(summary = "Get the progress of the purge of a group")
+	@ApiResponse(responseCode = "200", description = "Purge found",
+			content = @Content(
+					mediaType = "application/json",
+					schema = @Schema(implementation = ResponseSchema.class),
+					examples = @io.swagger.v3.oas.annotations.media.ExampleObject(							
+							value = "{\"message\": \"Purge found\", \"status\": \"OK\", \"data\": {\"status\": \"DONE\", \"deleted\": 1742, \"transactions\": 4, \"bookmark\": \"\"}}"
+							)
+					)
+	)
+	@ApiResponse(responseCode = "404", description = "Purge not found",
+			content = @Content(
+					mediaType = "application/json",
+					schema = @Schema(implementation = ResponseSchema.class),
+					examples = @io.swagger.v3.oas.annotations.media.ExampleObject(							
+							value = "{\"message\": \"Purge not found\", \"status\": \"NOT_FOUND\", \"data\": null}"
+							)
+					)
+	)
+	private ResponseEntity<Object> getPurge(@PathVariable String groupId) {
+		Map<String, Object> progress = purgeJobs.get(groupId);
+		if (progress == null) {
+			return sendResponse("Purge not found", HttpStatus.NOT_FOUND, null);
+		}
+		return sendResponse("Purge found", HttpStatus.OK, progress);
+	}
+
+	/**
+	 * Submit purgeGroup until the group has no more data, one bounded batch per transaction
+	 * @param contract - The contract
+	 * @param groupId - The ID of the group
+	 * @param username - The admin of the group
+	 * @param progress - The progress of the purge, updated after every transaction
+	 */
+	private void purgeGroup(Contract contract, String groupId, String username, Map<String, Object> progress) {
+		String bookmark = "";
+		try {
+			do {
+				System.out.println("\n--> Submit Transaction: PurgeGroup " + groupId + " " + bookmark);
+				byte[] result = contract.submitTransaction("purgeGroup", groupId, username, PURGE_BATCH, bookmark);
+				JsonObject batch = JsonParser.parseString(new String(result, StandardCharsets.UTF_8)).getAsJsonObject();
+				bookmark = batch.get("bookmark").getAsString();
+				progress.put("deleted", (Integer) progress.get("deleted") + batch.get("deleted").getAsInt());
+				progress.put("transactions", (Integer) progress.get("transactions") + 1);
+				progress.put("bookmark", bookmark);
+			} while (!bookmark.isEmpty());
+			progress.put("status", "DONE");
+		} catch (Exception e) {
+			e.printStackTrace();
+			progress.put("status", "FAILED");
+		}
+	}
+
 	/**
 	 * Get all the elements in the blockchain
 	 * @param objectNode - A JSON object containing the username of the caller in BC
@@ -1416,7 +1532,7 @@ public class App {
 	 * @return - All the users in JSON format
 	 */
 	@GetMapping("/users")
-	@Operation(summary = "Get all the users in the blockchain")
+	@Operation(summary = "Get all the users in the blockchain, or one page of them when pageSize is given (pass the returned bookmark as cursor to get the next page)")
 	@ApiResponse(responseCode = "200", description = "All users given",
 			content = @Content(
 					mediaType = "application/json",
@@ -1435,12 +1551,12 @@ public class App {
 							)
 					)
 	)
-	private ResponseEntity<Object> getAllUsers(@RequestParam String username) {
+	private ResponseEntity<Object> getAllUsers(@RequestParam String username, @RequestParam(required = false) Integer pageSize, @RequestParam(required = false) String cursor) {
 		System.out.println("\n--> Evaluate Transaction: GetAllUsers");
 
 		try {
 			Contract contract = connect(username);
-			var result = contract.evaluateTransaction("getAllUsers");
+			var result = (pageSize == null) ? contract.evaluateTransaction("getAllUsers") : evaluatePage(contract, "getUsersPage", pageSize, cursor);
 			String prettyJson = prettyJson(result);
 			return sendResponse("All users found", HttpStatus.OK, prettyJson);
 		} catch (Exception e) {
@@ -1456,7 +1572,7 @@ public class App {
 	 * @return - All the groups in JSON format
 	 */
 	@GetMapping("/groups")
-	@Operation(summary = "Get all the groups in the blockchain")
+	@Operation(summary = "Get all the groups in the blockchain, or one page of them when pageSize is given (pass the returned bookmark as cursor to get the next page)")
 	@ApiResponse(responseCode = "200", description = "All groups given",
 			content = @Content(
 					mediaType = "application/json",
@@ -1475,12 +1591,12 @@ public class App {
 							)
 					)
 	)
-	private ResponseEntity<Object> getAllGroups(@RequestParam String username) {
+	private ResponseEntity<Object> getAllGroups(@RequestParam String username, @RequestParam(required = false) Integer pageSize, @RequestParam(required = false) String cursor) {
 		System.out.println("\n--> Evaluate Transaction: GetAllGroups");
 
 		try {
 			Contract contract = connect(username);
-			var result = contract.evaluateTransaction("getAllGroups");
+			var result = (pageSize == null) ? contract.evaluateTransaction("getAllGroups") : evaluatePage(contract, "getGroupsPage", pageSize, cursor);
 			String prettyJson = prettyJson(result);
 			return sendResponse("All groups found", HttpStatus.OK, prettyJson);
 		} catch (Exception e) {
@@ -1496,7 +1612,7 @@ public class App {
 	 * @return - All the measures in JSON format
 	 */
 	@GetMapping("/measures")
-	@Operation(summary = "Get all the measures in the blockchain")
+	@Operation(summary = "Get all the measures in the blockchain, or one page of them when pageSize is given (pass the returned bookmark as cursor to get the next page)")
 	@ApiResponse(responseCode = "200", description = "All measures given",
 			content = @Content(
 					mediaType = "application/json",
@@ -1515,12 +1631,12 @@ public class App {
 							)
 					)
 	)
-	private ResponseEntity<Object> getAllMeasures(@RequestParam String username) {
+	private ResponseEntity<Object> getAllMeasures(@RequestParam String username, @RequestParam(required = false) Integer pageSize, @RequestParam(required = false) String cursor) {
 		System.out.println("\n--> Evaluate Transaction: GetAllMeasures");
 
 		try {
 			Contract contract = connect(username);
-			var result = contract.evaluateTransaction("getAllMeasures");
+			var result = (pageSize == null) ? contract.evaluateTransaction("getAllMeasures") : evaluatePage(contract, "getMeasuresPage", pageSize, cursor);
 			String prettyJson = prettyJson(result);
 			return sendResponse("All measures found", HttpStatus.OK, prettyJson);
 		} catch (Exception e) {
@@ -1536,7 +1652,7 @@ public class App {
 	 * @return - All the violations in JSON format
 	 */
 	@GetMapping("/violations")
-	@Operation(summary = "Get all the violations in the blockchain")
+	@Operation(summary = "Get all the violations in the blockchain, or one page of them when pageSize is given (pass the returned bookmark as cursor to get the next page)")
 	@ApiResponse(responseCode = "200", description = "All violations given",
 			content = @Content(
 					mediaType = "application/json",
@@ -1555,12 +1671,12 @@ public class App {
 							)
 					)
 	)
-	private ResponseEntity<Object> getAllViolations(@RequestParam String username) {
+	private ResponseEntity<Object> getAllViolations(@RequestParam String username, @RequestParam(required = false) Integer pageSize, @RequestParam(required = false) String cursor) {
 		System.out.println("\n--> Evaluate Transaction: GetAllViolations");
 
 		try {
 			Contract contract = connect(username);
-			var result = contract.evaluateTransaction("getAllViolations");
+			var result = (pageSize == null) ? contract.evaluateTransaction("getAllViolations") : evaluatePage(contract, "getViolationsPage", pageSize, cursor);
 			String prettyJson = prettyJson(result);
 			return sendResponse("All violations found", HttpStatus.OK, prettyJson);
 		} catch (Exception e) {
@@ -1754,14 +1870,14 @@ public class App {
 					)
 	)
 	@io.swagger.v3.oas.annotations.parameters.RequestBody(
-			description = "A JSON object containing the groupID of the caller in BC",
+			description = "A JSON object containing the username of the caller in BC and the window to check, start and end are ISO instants (a time of the day is taken on the current UTC day)",
 			required = true,
 			content = @Content(
 					mediaType = "application/json",
 					schema = @Schema(implementation = ObjectNode.class),
 					examples = @io.swagger.v3.oas.annotations.media.ExampleObject(
 
-							value = "{\"groupId\": \"1\"}"
+							value = "{\"username\": \"1\", \"start\": \"2024-05-01T22:00:00Z\", \"end\": \"2024-05-02T02:00:00Z\"}"
 					)
 			)
 	)
@@ -1776,7 +1892,7 @@ public class App {
 			String end = objectNode.get("end").asText();
 			Contract contract = connect(username);
 
-			contract.submitTransaction("checkViolationComplete", groupId, start, end);
+			contract.submitTransaction("arbiter", groupId, start, end);
 			return sendResponse("Group of transaction checked for violations", HttpStatus.OK, null);
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -1786,6 +1902,65 @@ public class App {
 	}
 
 
+	/**
+	 * Raise a violation for every device of a group that missed its next sample, one bounded batch per transaction
+	 * @param groupId - The ID of the group
+	 * @param objectNode - A JSON object containing the username of the caller in BC
+	 * @return - The number of violations raised
+	 */
+	@PostMapping("/groups/{groupId}/sweep_deadlines")
+	@Operation(summary = "Raise a violation for every device of a group that missed its next sample")
+	@ApiResponse(responseCode = "200", description = "Deadlines swept",
+			content = @Content(
+					mediaType = "application/json",
+					schema = @Schema(implementation = ResponseSchema.class),
+					examples = @io.swagger.v3.oas.annotations.media.ExampleObject(
+							value = "{\"message\": \"Deadlines swept\", \"status\": \"OK\", \"data\": 3}"
+							)
+					)
+	)
+	@ApiResponse(responseCode = "500", description = "Error sweeping deadlines",
+			content = @Content(
+					mediaType = "application/json",
+					schema = @Schema(implementation = ResponseSchema.class),
+					examples = @io.swagger.v3.oas.annotations.media.ExampleObject(
+							value = "{\"message\": \"Error sweeping deadlines\", \"status\": \"INTERNAL_SERVER_ERROR\", \"data\": null}"
+							)
+					)
+	)
+	@io.swagger.v3.oas.annotations.parameters.RequestBody(
+			description = "A JSON object containing the username of the caller in BC",
+			required = true,
+			content = @Content(
+					mediaType = "application/json",
+					schema = @Schema(implementation = ObjectNode.class),
+					examples = @io.swagger.v3.oas.annotations.media.ExampleObject(
+							value = "{\"username\": \"1\"}"
+					)
+			)
+	)
+	private ResponseEntity<Object> sweepDeadlines(@PathVariable String groupId, @RequestBody ObjectNode objectNode) {
+		System.out.println("\n--> Submit Transaction: sweepDeadlines");
+
+		try{
+			String username = objectNode.get("username").asText();
+			Contract contract = connect(username);
+
+			int batch = Integer.parseInt(SWEEP_BATCH);
+			int raised = 0;
+			int last;
+			do {
+				last = Integer.parseInt(new String(contract.submitTransaction("sweepDeadlines", groupId, SWEEP_BATCH), StandardCharsets.UTF_8));
+				raised += last;
+			} while (last == batch);
+			return sendResponse("Deadlines swept", HttpStatus.OK, raised);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+
+		return sendResponse("Error sweeping deadlines", HttpStatus.INTERNAL_SERVER_ERROR, null);
+	}
+
 	@PostMapping("/groups/{groupId}/reset_warnings")
 	@Operation(summary = "Resetting the warnings in a group")
 	@ApiResponse(responseCode = "200", description = "Warning resetted",